@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import labs.pm.data.ProductManager;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * {@code CatalogueConverter} class converts the catalogue loaded by the
+ * {@link ProductManager} to a single binary catalogue file, or back to one
+ * product file and one reviews file per product.
+ * <br>
+ * Usage: {@code CatalogueConverter catalogue <file>} or
+ * {@code CatalogueConverter csv <folder>}
+ *
+ * @author apellet
+ */
+public class CatalogueConverter {
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 || !(args[0].equals("catalogue") || args[0].equals("csv"))) {
+            System.err.println("Usage: CatalogueConverter catalogue <file> | csv <folder>");
+            System.exit(1);
+        }
+        
+        ProductManager pm = ProductManager.getInstance();
+        
+        try {
+            if (args[0].equals("catalogue")) {
+                pm.saveCatalogue(Path.of(args[1]));
+            } else {
+                pm.saveData(Path.of(args[1]));
+            }
+        } catch (IOException e) {
+            Logger.getLogger(CatalogueConverter.class.getName())
+                  .log(Level.SEVERE, "Error converting catalogue", e);
+            System.exit(1);
+        }
+    }
+}
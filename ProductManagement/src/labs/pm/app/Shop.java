@@ -16,13 +16,19 @@
  */
 package labs.pm.app;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -40,13 +46,48 @@ import java.util.logging.Level;
  */
 public class Shop {
 
+    private static final Logger logger = Logger.getLogger(Shop.class.getName());
+    
+    private static final int PLATFORM_THREADS = 3;
+    private static final int MAX_PRINTED_CLIENTS = 10;
+    
     /**
+     * Runs a number of clients against the product manager
+     * <br>
+     * Usage: {@code Shop [<clients>] [platform|virtual|compare]}. Platform
+     * mode runs the clients on a pool of {@value #PLATFORM_THREADS} threads,
+     * virtual mode runs each client on a virtual thread of its own, and
+     * compare mode runs both and prints how long each took. Client logs and
+     * report files are printed for up to {@value #MAX_PRINTED_CLIENTS}
+     * clients.
+     *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        String mode = (args.length > 1) ? args[1] : "platform";
+        
         ProductManager pm = ProductManager.getInstance();
+        boolean verbose = clients <= MAX_PRINTED_CLIENTS;
         
+        switch (mode) {
+            case "platform":
+            case "virtual":
+                runClients(pm, clients, mode.equals("virtual"), verbose);
+                break;
+            case "compare":
+                runClients(pm, clients, false, false);
+                runClients(pm, clients, true, false);
+                break;
+            default:
+                System.err.println("Unknown mode " + mode);
+        }
+    }
+    
+    private static void runClients(ProductManager pm, int clients, boolean virtual,
+                                   boolean verbose) {
         AtomicInteger clientCount = new AtomicInteger(0);
+        Queue<CompletableFuture<Path>> reports = new ConcurrentLinkedQueue<>();
         
         Callable<String> client = () -> {
             String clientId = "Client " + clientCount.incrementAndGet();
@@ -75,35 +116,87 @@ public class Shop {
                     ?"\nProduct " + productId + " reviewed\n"
                     :"\nProduct " + productId + " not reviewed\n");
             
-            pm.printProductReport(productId, languageTag, clientId);
+            reports.add(pm.printProductReportAsync(productId, languageTag, clientId));
             
-            log.append(clientId + " generated report for " + productId + " product");
+            log.append(clientId + " requested report for " + productId + " product");
             log.append("\n-\tend of log\t-\n");
             
             return log.toString();
         };
         
-        List<Callable<String>> clients = Stream.generate(() -> client)
-                                               .limit(5)
-                                               .collect(Collectors.toList());
+        List<Callable<String>> tasks = Stream.generate(() -> client)
+                                             .limit(clients)
+                                             .collect(Collectors.toList());
+        
+        ExecutorService executorService = virtual
+                ? newVirtualThreadExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+        String threads = "Platform threads";
         
-        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        if (executorService == null) {
+            executorService = Executors.newCachedThreadPool();
+            threads = "Platform thread per client";
+        } else if (virtual) {
+            threads = "Virtual threads";
+        }
+        
+        long start = System.nanoTime();
         
         try {
-            List<Future<String>> results = executorService.invokeAll(clients);
+            List<Future<String>> results = executorService.invokeAll(tasks);
             executorService.shutdown();
             
             results.stream().forEach(result -> {
                 try {
-                    System.out.println(result.get());
+                    String log = result.get();
+                    
+                    if (verbose) {
+                        System.out.println(log);
+                    }
                 } catch (InterruptedException | ExecutionException e) {
-                    Logger.getLogger(Shop.class.getName())
-                          .log(Level.SEVERE, "Error retrieving client log", e);
+                    logger.log(Level.SEVERE, "Error retrieving client log", e);
                 }
             });
         } catch (InterruptedException e) {
-            Logger.getLogger(Shop.class.getName())
-                  .log(Level.SEVERE, "Error invoking clients", e);
+            logger.log(Level.SEVERE, "Error invoking clients", e);
+        }
+        
+        reports.forEach(report -> {
+            try {
+                Path file = report.join();
+                
+                if (verbose) {
+                    System.out.println("Generated " + file.getFileName());
+                }
+            } catch (CompletionException e) {
+                logger.log(Level.SEVERE, "Error generating report", e.getCause());
+            }
+        });
+        
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.printf("%s: %,d clients in %,d ms, %,.0f clients/s%n",
+                          threads, clients,
+                          TimeUnit.NANOSECONDS.toMillis(elapsed), clients * 1e9 / elapsed);
+    }
+    
+    /**
+     * Creates an executor that starts a virtual thread per task. Virtual
+     * threads are looked up at run time, so the shop still runs on a JDK
+     * without them, with a new platform thread per task instead.
+     *
+     * @return the executor, or {@code null} if this JDK has no virtual
+     * threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.log(Level.WARNING, "Virtual threads are not available, "
+                    + "using a platform thread per client");
+            return null;
         }
     }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * {@code CatalogueGenerator} class writes a data folder of generated products
+ * and reviews, in the layout that {@code ProductManager} loads.
+ * <br>
+ * Half of the products are drinks and half are food, with prices up to 20.99
+ * and best before dates spread over a year. The same seed always produces the
+ * same folder.
+ *
+ * @author apellet
+ */
+public class CatalogueGenerator {
+    private static final String[] COMMENTS = {
+        "Perfect", "Nice one", "Just fine", "Good value", "Rather disappointing",
+        "Not what I expected, to be honest", "Would buy again", "Too expensive"
+    };
+    private static final LocalDate FIRST_BEST_BEFORE = LocalDate.of(2021, 1, 1);
+    
+    /**
+     * Generates a data folder
+     * <br>
+     * Usage: {@code CatalogueGenerator <folder> <products> [<reviews per product>]}
+     *
+     * @param args the command line arguments
+     * @throws IOException if a file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CatalogueGenerator <folder> <products> [<reviews per product>]");
+            System.exit(1);
+        }
+        
+        int products = Integer.parseInt(args[1]);
+        int reviews = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+        long start = System.nanoTime();
+        
+        generate(Path.of(args[0]), products, reviews, 42);
+        
+        System.out.printf("Generated %,d products in %,d ms%n",
+                          products, (System.nanoTime() - start) / 1_000_000);
+    }
+    
+    /**
+     * Writes products {@code 1} to {@code products}, each with a reviews file
+     * when it has reviews. The rating of each product is the average of its
+     * generated reviews, rounded as {@code ProductManager} rounds it, so the
+     * loaded catalogue is consistent with its reviews.
+     *
+     * @param folder the data folder, created if needed
+     * @param products the number of products
+     * @param reviewsPerProduct the average number of reviews per product
+     * @param seed the seed of the generated values
+     * @throws IOException if a file cannot be written
+     */
+    public static void generate(Path folder, int products, int reviewsPerProduct, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        StringBuilder reviewLines = new StringBuilder();
+        
+        Files.createDirectories(folder);
+        
+        for (int id = 1; id <= products; id++) {
+            boolean food = (id % 2 == 0);
+            String price = (random.nextInt(2000) + 1) / 100 + "."
+                    + String.format("%02d", random.nextInt(100));
+            LocalDate bestBefore = FIRST_BEST_BEFORE.plusDays(random.nextInt(365));
+            int reviews = (reviewsPerProduct == 0) ? 0 : random.nextInt(2 * reviewsPerProduct + 1);
+            int sum = 0;
+            
+            reviewLines.setLength(0);
+            
+            for (int i = 0; i < reviews; i++) {
+                int rating = random.nextInt(5) + 1;
+                
+                sum += rating;
+                reviewLines.append(rating).append(", ")
+                           .append(COMMENTS[random.nextInt(COMMENTS.length)])
+                           .append(System.lineSeparator());
+            }
+            
+            long average = (reviews == 0) ? 0 : Math.round((double) sum / reviews);
+            String line = (food ? "F, " : "D, ") + id + ", "
+                    + (food ? "Food " : "Drink ") + id + ", " + price + ", " + average + ", "
+                    + bestBefore;
+            
+            Files.writeString(folder.resolve("product" + id + ".csv"), line + '\n',
+                              StandardCharsets.UTF_8);
+            
+            if (reviews > 0) {
+                Files.writeString(folder.resolve("reviews" + id + ".csv"), reviewLines,
+                                  StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import labs.pm.data.CatalogueSnapshot;
+import labs.pm.data.Product;
+import labs.pm.data.ProductFilter;
+import labs.pm.data.ProductManager;
+import labs.pm.data.ProductManagerException;
+import labs.pm.data.Rating;
+
+/**
+ * {@code ConcurrencyStress} class reviews products from a growing number of
+ * threads, checks that no review was lost and reports how the review
+ * throughput scales with the number of threads.
+ * <br>
+ * Each round, every thread adds reviews with random ratings to random
+ * products, while a reader thread keeps reading discounts and paging through
+ * snapshots of the catalogue sorted by rating. Paging through a snapshot must
+ * return each of its products exactly once, however the ratings change
+ * meanwhile. After the round, the rating histogram of every product must have
+ * grown by exactly the reviews added to it, the rating of every reviewed
+ * product must be the average of its histogram, and the products found by
+ * rating must be the products with that rating.
+ * <br>
+ * Usage: {@code ConcurrencyStress [-folder <folder>] [-products <count>]
+ * [-reviews <per thread>] [-threads <count,...>]}. The data folder is
+ * generated with {@link CatalogueGenerator} when it does not exist. The
+ * process exits with status 1 if a check fails.
+ *
+ * @author apellet
+ */
+public class ConcurrencyStress {
+    private static final Map<String, String> defaults = Map.of(
+            "folder", Path.of(System.getProperty("java.io.tmpdir"), "pm-stress").toString(),
+            "products", "1000",
+            "reviews", "5000",
+            "threads", "1,2,4,8");
+    
+    private static final int PAGE_SIZE = 100;
+    private static final Rating[] REVIEW_RATINGS = {
+        Rating.ONE_STAR, Rating.TWO_STAR, Rating.THREE_STAR, Rating.FOUR_STAR, Rating.FIVE_STAR
+    };
+    
+    private final ProductManager pm;
+    private final int productCount;
+    private int failures;
+    
+    private ConcurrencyStress(ProductManager pm, int productCount) {
+        this.pm = pm;
+        this.productCount = productCount;
+    }
+    
+    /**
+     * @param args the command line arguments
+     * @throws Exception if the stress test cannot run
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(defaults);
+        
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        
+        Path folder = Path.of(options.get("folder"));
+        int productCount = Integer.parseInt(options.get("products"));
+        
+        if (Files.notExists(folder.resolve("data"))) {
+            System.out.printf("Generating %,d products in %s%n", productCount, folder);
+            CatalogueGenerator.generate(folder.resolve("data"), productCount, 5, 42);
+        }
+        
+        Files.createDirectories(folder.resolve("reports"));
+        Files.deleteIfExists(folder.resolve("reviews.log"));
+        System.setProperty("labs.pm.data.folder", folder.resolve("data").toString());
+        System.setProperty("labs.pm.reports.folder", folder.resolve("reports").toString());
+        System.setProperty("labs.pm.temp.folder", folder.resolve("temp").toString());
+        System.setProperty("labs.pm.catalogue.file", folder.resolve("none.dat").toString());
+        System.setProperty("labs.pm.log.file", folder.resolve("reviews.log").toString());
+        
+        ConcurrencyStress stress = new ConcurrencyStress(ProductManager.getInstance(),
+                                                         productCount);
+        int reviews = Integer.parseInt(options.get("reviews"));
+        double single = 0;
+        
+        for (String threads : options.get("threads").split(",")) {
+            double throughput = stress.round(Integer.parseInt(threads.trim()), reviews);
+            
+            if (single == 0) {
+                single = throughput;
+            }
+            
+            System.out.printf("%3s threads: %,10.0f reviews/s, %5.2fx%n",
+                              threads.trim(), throughput, throughput / single);
+        }
+        
+        if (stress.failures > 0) {
+            System.out.printf("%,d checks failed%n", stress.failures);
+            System.exit(1);
+        }
+        
+        System.out.println("All checks passed");
+    }
+    
+    /**
+     * Runs one round of reviews and checks the catalogue afterwards
+     *
+     * @return the number of reviews added per second
+     */
+    private double round(int threads, int reviewsPerThread)
+            throws InterruptedException, ProductManagerException {
+        long[][] before = histograms();
+        AtomicLongArray added = new AtomicLongArray(productCount * REVIEW_RATINGS.length);
+        AtomicBoolean reviewing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong inconsistentPages = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        
+        Thread reader = new Thread(() -> {
+            Comparator<Product> byRating = Comparator.comparing(Product::getRating);
+            
+            while (reviewing.get()) {
+                CatalogueSnapshot snapshot = pm.getSnapshot();
+                Set<Integer> seen = new HashSet<>();
+                List<Product> page = pm.findProducts(snapshot, product -> true, byRating,
+                                                     null, PAGE_SIZE);
+                
+                while (!page.isEmpty()) {
+                    for (Product product : page) {
+                        if (!seen.add(product.getId())) {
+                            inconsistentPages.incrementAndGet();
+                        }
+                    }
+                    
+                    page = pm.findProducts(snapshot, product -> true, byRating,
+                                           page.get(page.size() - 1), PAGE_SIZE);
+                }
+                
+                if (seen.size() != snapshot.getProductCount()) {
+                    inconsistentPages.incrementAndGet();
+                }
+                
+                pm.getDiscount("en-GB");
+                reads.incrementAndGet();
+            }
+        }, "stress-reader");
+        reader.setDaemon(true);
+        reader.start();
+        
+        long start = System.nanoTime();
+        
+        for (int i = 0; i < threads; i++) {
+            SplittableRandom random = new SplittableRandom(threads * 1000L + i);
+            
+            Thread thread = new Thread(() -> {
+                for (int n = 0; n < reviewsPerThread; n++) {
+                    int product = random.nextInt(productCount);
+                    int rating = random.nextInt(REVIEW_RATINGS.length);
+                    
+                    if (pm.reviewProduct(product + 1, REVIEW_RATINGS[rating], "Stress") != null) {
+                        added.incrementAndGet(product * REVIEW_RATINGS.length + rating);
+                    }
+                }
+                
+                done.countDown();
+            }, "stress-" + threads + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        reviewing.set(false);
+        reader.join();
+        
+        if (inconsistentPages.get() > 0) {
+            fail("%,d of %,d passes over a snapshot skipped or repeated products",
+                 inconsistentPages.get(), reads.get());
+        }
+        
+        check(before, added, (long) threads * reviewsPerThread);
+        
+        return (double) threads * reviewsPerThread * 1e9 / elapsed;
+    }
+    
+    private long[][] histograms() throws ProductManagerException {
+        long[][] histograms = new long[productCount][REVIEW_RATINGS.length];
+        
+        for (int i = 0; i < productCount; i++) {
+            Map<Rating, Integer> histogram = pm.getRatingHistogram(i + 1);
+            
+            for (int r = 0; r < REVIEW_RATINGS.length; r++) {
+                histograms[i][r] = histogram.getOrDefault(REVIEW_RATINGS[r], 0);
+            }
+        }
+        
+        return histograms;
+    }
+    
+    private void check(long[][] before, AtomicLongArray added, long expectedTotal)
+            throws ProductManagerException {
+        long[][] after = histograms();
+        long total = 0;
+        
+        for (int i = 0; i < productCount; i++) {
+            long count = 0;
+            long sum = 0;
+            
+            for (int r = 0; r < REVIEW_RATINGS.length; r++) {
+                long expected = before[i][r] + added.get(i * REVIEW_RATINGS.length + r);
+                
+                if (after[i][r] != expected) {
+                    fail("Product %d has %d %s reviews instead of %d",
+                         i + 1, after[i][r], REVIEW_RATINGS[r], expected);
+                }
+                
+                total += after[i][r] - before[i][r];
+                count += after[i][r];
+                sum += after[i][r] * REVIEW_RATINGS[r].ordinal();
+            }
+            
+            Rating average = (count == 0)
+                    ? Rating.NOT_RATED
+                    : Rating.values()[(int) Math.round((double) sum / count)];
+            Rating rating = pm.findProduct(i + 1).getRating();
+            
+            if (count > Arrays.stream(before[i]).sum() && rating != average) {
+                fail("Product %d is rated %s instead of %s", i + 1, rating, average);
+            }
+        }
+        
+        if (total != expectedTotal) {
+            fail("%,d reviews were added instead of %,d", total, expectedTotal);
+        }
+        
+        for (Rating rating : Rating.values()) {
+            Set<Integer> found = new HashSet<>();
+            
+            pm.findProducts(ProductFilter.rating(rating), Comparator.comparing(Product::getId),
+                            null, Integer.MAX_VALUE)
+              .forEach(product -> found.add(product.getId()));
+            
+            for (int i = 0; i < productCount; i++) {
+                boolean rated = pm.findProduct(i + 1).getRating() == rating;
+                
+                if (rated != found.contains(i + 1)) {
+                    fail("Product %d is %s the %s index", i + 1,
+                         rated ? "missing from" : "wrongly in", rating);
+                }
+            }
+        }
+    }
+    
+    private void fail(String format, Object... args) {
+        if (failures++ < 20) {
+            System.out.println("FAILED: " + String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.function.Function;
+import labs.pm.data.CsvParser;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+import labs.pm.data.ResourceFormatter;
+import labs.pm.data.Review;
+
+/**
+ * {@code FormatBenchmark} class measures the product and review lines
+ * formatted per second for every supported locale, with
+ * {@link ResourceFormatter} and with the {@link MessageFormat} based
+ * formatting it replaced.
+ *
+ * @author apellet
+ */
+public class FormatBenchmark {
+    private static final int LINES = 100_000;
+    private static final int ROUNDS = 5;
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws ParseException {
+        List<Product> products = new ArrayList<>(LINES);
+        List<Review> reviews = new ArrayList<>(LINES);
+        
+        for (int i = 0; i < LINES; i++) {
+            products.add(CsvParser.parseProduct((i % 2 == 0 ? "D" : "F") + ", " + i
+                    + ", Product " + i + ", " + (i % 10000) + ".99, " + (i % 6)
+                    + ", 2019-09-" + (10 + i % 20)));
+            reviews.add(new Review(Rating.values()[i % 6], "Review number " + i));
+        }
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("Round " + round);
+            
+            for (String languageTag : ResourceFormatter.getSupportedLocales()) {
+                ResourceFormatter formatter = ResourceFormatter.getFormatter(languageTag);
+                Locale locale = Locale.forLanguageTag(languageTag);
+                ResourceBundle resources =
+                        ResourceBundle.getBundle("labs.pm.data.resources", locale);
+                NumberFormat moneyFormat = NumberFormat.getCurrencyInstance(locale);
+                DateTimeFormatter dateFormat =
+                        DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).localizedBy(locale);
+                
+                report(languageTag + " MessageFormat product", products,
+                       p -> MessageFormat.format(resources.getString("product"),
+                                                 p.getName(),
+                                                 moneyFormat.format(p.getPrice()),
+                                                 p.getRating().getStars(),
+                                                 dateFormat.format(p.getBestBefore())));
+                report(languageTag + " formatter product", products, formatter::formatProduct);
+                report(languageTag + " MessageFormat review", reviews,
+                       r -> MessageFormat.format(resources.getString("review"),
+                                                 r.getRating().getStars(),
+                                                 r.getComments()));
+                report(languageTag + " formatter review", reviews, formatter::formatReview);
+            }
+        }
+    }
+    
+    private static <T> void report(String name, List<T> items, Function<T, String> format) {
+        long start = System.nanoTime();
+        int length = 0;
+        
+        for (T item : items) {
+            length += format.apply(item).length();
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.printf("%-32s %,12.0f lines/s (%d)%n",
+                          name, items.size() * 1e9 / elapsed, length & 1);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@code Harness} class runs an operation in a loop on a number of threads,
+ * first to warm up and then to measure its throughput.
+ * <br>
+ * Each thread counts its own operations, so the measurement adds no shared
+ * state of its own to the operation being measured. The result of every
+ * operation is folded into a per-thread value that is published when the
+ * thread stops, so the JIT cannot eliminate an operation whose result would
+ * otherwise be unused.
+ *
+ * @author apellet
+ */
+class Harness {
+    private final long warmupNanos;
+    private final long measureNanos;
+    
+    Harness(int warmupSeconds, int measureSeconds) {
+        this.warmupNanos = warmupSeconds * 1_000_000_000L;
+        this.measureNanos = measureSeconds * 1_000_000_000L;
+    }
+    
+    /**
+     * Runs an operation and prints its throughput and average time
+     *
+     * @param name the name printed with the results
+     * @param threads the number of threads running the operation
+     * @param operation the operation to run
+     * @throws InterruptedException if interrupted while waiting for the
+     * threads
+     */
+    void run(String name, int threads, Operation operation) throws InterruptedException {
+        Worker[] workers = new Worker[threads];
+        List<Thread> started = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, operation, ready, go);
+            Thread thread = new Thread(workers[i], name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            started.add(thread);
+        }
+        
+        ready.await();
+        go.countDown();
+        Thread.sleep(warmupNanos / 1_000_000);
+        
+        for (Worker worker : workers) {
+            worker.measuring = true;
+        }
+        
+        long start = System.nanoTime();
+        Thread.sleep(measureNanos / 1_000_000);
+        
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+        
+        for (Thread thread : started) {
+            thread.join();
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        long operations = 0;
+        long failures = 0;
+        
+        for (Worker worker : workers) {
+            operations += worker.operations;
+            failures += worker.failures;
+        }
+        
+        System.out.printf("%-40s %3d threads %,14.0f ops/s %,12.0f ns/op%s%n",
+                          name, threads, operations * 1e9 / elapsed,
+                          (operations == 0) ? 0.0 : (double) elapsed * threads / operations,
+                          (failures == 0) ? "" : " (" + failures + " failed)");
+    }
+    
+    /**
+     * An operation to measure
+     */
+    @FunctionalInterface
+    interface Operation {
+        /**
+         * Runs the operation once
+         *
+         * @param thread the index of the calling thread
+         * @param random a random generator owned by the calling thread
+         * @return the result of the operation, which is consumed by the
+         * harness, or {@code null}
+         * @throws Exception if the operation fails, which is counted
+         */
+        Object run(int thread, SplittableRandom random) throws Exception;
+    }
+    
+    private static class Worker implements Runnable {
+        private final int index;
+        private final Operation operation;
+        private final CountDownLatch ready;
+        private final CountDownLatch go;
+        private final SplittableRandom random;
+        private volatile boolean measuring;
+        private volatile boolean running = true;
+        private volatile int consumed;
+        private long operations;
+        private long failures;
+        
+        private Worker(int index, Operation operation, CountDownLatch ready, CountDownLatch go) {
+            this.index = index;
+            this.operation = operation;
+            this.ready = ready;
+            this.go = go;
+            this.random = new SplittableRandom(index);
+        }
+        
+        @Override
+        public void run() {
+            ready.countDown();
+            
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            
+            int sink = 0;
+            
+            while (running) {
+                boolean counted = measuring;
+                
+                try {
+                    sink ^= System.identityHashCode(operation.run(index, random));
+                } catch (Exception e) {
+                    if (counted) {
+                        failures++;
+                    }
+                }
+                
+                if (counted) {
+                    operations++;
+                }
+            }
+            
+            consumed = sink;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import labs.pm.data.CsvParser;
+
+/**
+ * {@code ParserBenchmark} class compares the throughput of
+ * {@link CsvParser} with the {@link MessageFormat} based parsing it replaced.
+ *
+ * @author apellet
+ */
+public class ParserBenchmark {
+    private static final int LINES = 100_000;
+    private static final int ROUNDS = 10;
+    
+    private static final MessageFormat productFormat =
+            new MessageFormat("{0}, {1}, {2}, {3}, {4}, {5}");
+    private static final MessageFormat reviewFormat =
+            new MessageFormat("{0}, {1}");
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws ParseException {
+        List<String> products = IntStream.range(0, LINES)
+                .mapToObj(i -> (i % 2 == 0 ? "D" : "F") + ", " + i + ", Product " + i
+                        + ", " + (i % 1000) + ".99, " + (i % 6) + ", 2019-09-19")
+                .collect(Collectors.toList());
+        List<String> reviews = IntStream.range(0, LINES)
+                .mapToObj(i -> (i % 6) + ", Review number " + i + ", with a comma")
+                .collect(Collectors.toList());
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("Round " + round);
+            report("MessageFormat product", products, ParserBenchmark::parseProductFields);
+            report("CsvParser product", products, CsvParser::parseProduct);
+            report("MessageFormat review", reviews, ParserBenchmark::parseReviewFields);
+            report("CsvParser review", reviews, CsvParser::parseReview);
+        }
+    }
+    
+    private static void report(String name, List<String> lines, Parser parser)
+            throws ParseException {
+        long start = System.nanoTime();
+        int check = 0;
+        
+        for (String line : lines) {
+            check += parser.parse(line).hashCode();
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.printf("%-24s %,12.0f lines/s (%d)%n",
+                          name, lines.size() * 1e9 / elapsed, check & 1);
+    }
+    
+    private static Object parseProductFields(String text) throws ParseException {
+        Object[] values = productFormat.parse(text);
+        
+        return List.of(values[0], Integer.parseInt((String) values[1]), values[2],
+                       BigDecimal.valueOf(Double.parseDouble((String) values[3])),
+                       Integer.parseInt((String) values[4]),
+                       LocalDate.parse((String) values[5]));
+    }
+    
+    private static Object parseReviewFields(String text) throws ParseException {
+        Object[] values = reviewFormat.parse(text);
+        
+        return List.of(Integer.parseInt((String) values[0]), values[1]);
+    }
+    
+    @FunctionalInterface
+    private interface Parser {
+        Object parse(String text) throws ParseException;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import labs.pm.data.CsvParser;
+import labs.pm.data.Product;
+import labs.pm.data.ProductFilter;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+
+/**
+ * {@code ProductManagerBenchmark} class measures the throughput of the
+ * {@link ProductManager} operations on generated catalogues, from 1 up to 32
+ * threads.
+ * <br>
+ * {@code ProductManager} is a singleton that loads its data folder once, so
+ * each catalogue size is measured in a JVM of its own. The data folders are
+ * generated once under {@code java.io.tmpdir} and reused by later runs.
+ * Catalogue sizes are combined with every review count, except those that
+ * would add up to more than {@value #MAX_REVIEWS} reviews.
+ * <br>
+ * A review is only acknowledged once the review log is forced to disk, so
+ * the reviewProduct results include the fsync of the log, and mostly
+ * measure the disk.
+ * <br>
+ * Usage: {@code ProductManagerBenchmark [-benchmarks <names>] [-products <sizes>]
+ * [-reviews <counts>] [-threads <counts>] [-warmup <seconds>] [-time <seconds>]
+ * [-forks <count>]}, where lists are separated by commas. The benchmarks are
+ * findProduct, reviewProduct, getDiscount, printProducts, printProductReport,
+ * parseProduct, parseReview and loadAllData.
+ *
+ * @author apellet
+ */
+public class ProductManagerBenchmark {
+    private static final String ALL_BENCHMARKS = "findProduct,reviewProduct,getDiscount,"
+            + "printProducts,printProductReport,parseProduct,parseReview,loadAllData";
+    private static final String FORK = "-fork";
+    private static final String[] LANGUAGE_TAGS =
+            ProductManager.getSupportedLocales().toArray(new String[0]);
+    private static final int REPORT_PRODUCTS = 1000;
+    private static final int PAGE_SIZE = 100;
+    private static final long MAX_REVIEWS = 10_000_000;
+    private static final Map<String, String> LABELS =
+            Map.of("reviewProduct", "reviewProduct incl. log fsync");
+    
+    private static final Map<String, String> defaults = Map.of(
+            "benchmarks", ALL_BENCHMARKS,
+            "products", "1000,100000,1000000",
+            "reviews", "0,100,10000",
+            "threads", "1,2,4,8,16,32",
+            "warmup", "2",
+            "time", "5",
+            "forks", "1");
+    
+    /**
+     * @param args the command line arguments
+     * @throws Exception if the benchmark cannot run
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        
+        if (options.containsKey(FORK)) {
+            runFork(options);
+            return;
+        }
+        
+        Path root = Path.of(System.getProperty("java.io.tmpdir"), "pm-bench");
+        
+        for (int products : parseList(options.get("products"))) {
+            for (int reviews : parseList(options.get("reviews"))) {
+                Path folder = root.resolve(products + "x" + reviews);
+                
+                if ((long) products * reviews > MAX_REVIEWS) {
+                    System.out.printf("# Skipping %,d products with %d reviews each%n",
+                                      products, reviews);
+                    continue;
+                }
+                
+                if (Files.notExists(folder.resolve("data"))) {
+                    System.out.printf("Generating %,d products with %d reviews each%n",
+                                      products, reviews);
+                    CatalogueGenerator.generate(folder.resolve("data"), products, reviews, 42);
+                }
+                
+                for (int fork = 1; fork <= Integer.parseInt(options.get("forks")); fork++) {
+                    System.out.printf("# %,d products, %d reviews each, fork %d%n",
+                                      products, reviews, fork);
+                    fork(folder, products, options);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Runs the benchmarks in a new JVM whose {@code ProductManager} loads a
+     * given data folder, with a fresh review log and no catalogue file.
+     */
+    private static void fork(Path folder, int products, Map<String, String> options)
+            throws IOException, InterruptedException {
+        Files.createDirectories(folder.resolve("reports"));
+        Files.deleteIfExists(folder.resolve("reviews.log"));
+        
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "-Dlabs.pm.data.folder=" + folder.resolve("data"),
+                "-Dlabs.pm.reports.folder=" + folder.resolve("reports"),
+                "-Dlabs.pm.temp.folder=" + folder.resolve("temp"),
+                "-Dlabs.pm.catalogue.file=" + folder.resolve("none.dat"),
+                "-Dlabs.pm.log.file=" + folder.resolve("reviews.log"),
+                ProductManagerBenchmark.class.getName(),
+                FORK, String.valueOf(products)));
+        
+        options.forEach((key, value) -> command.addAll(List.of("-" + key, value)));
+        
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        
+        if (status != 0) {
+            System.err.println("Fork failed with status " + status);
+        }
+    }
+    
+    private static void runFork(Map<String, String> options) throws Exception {
+        int products = Integer.parseInt(options.get(FORK));
+        List<String> benchmarks = Arrays.asList(options.get("benchmarks").split(","));
+        int[] threadCounts = parseList(options.get("threads"));
+        Harness harness = new Harness(Integer.parseInt(options.get("warmup")),
+                                      Integer.parseInt(options.get("time")));
+        
+        long start = System.nanoTime();
+        ProductManager pm = ProductManager.getInstance();
+        long elapsed = System.nanoTime() - start;
+        
+        if (benchmarks.contains("loadAllData")) {
+            System.out.printf("%-40s %,14d ms %,12.0f ns/product%n", "loadAllData",
+                              elapsed / 1_000_000, (double) elapsed / products);
+        }
+        
+        Map<String, Harness.Operation> operations = new HashMap<>();
+        
+        operations.put("findProduct",
+                (thread, random) -> pm.findProduct(random.nextInt(products) + 1));
+        operations.put("reviewProduct",
+                (thread, random) -> pm.reviewProduct(random.nextInt(products) + 1,
+                                                     Rating.values()[random.nextInt(5) + 1],
+                                                     "Benchmark review"));
+        operations.put("getDiscount",
+                (thread, random) -> pm.getDiscount(
+                        LANGUAGE_TAGS[random.nextInt(LANGUAGE_TAGS.length)]));
+        operations.put("printProductReport",
+                (thread, random) -> {
+                    pm.printProductReport(
+                            random.nextInt(Math.min(products, REPORT_PRODUCTS)) + 1,
+                            LANGUAGE_TAGS[random.nextInt(LANGUAGE_TAGS.length)],
+                            "Benchmark " + thread);
+                    return null;
+                });
+        
+        List<String> productLines = IntStream.range(0, 1000)
+                .mapToObj(i -> (i % 2 == 0 ? "D" : "F") + ", " + i + ", Product " + i
+                        + ", " + (i % 1000) + ".99, " + (i % 6) + ", 2019-09-19")
+                .collect(Collectors.toList());
+        List<String> reviewLines = IntStream.range(0, 1000)
+                .mapToObj(i -> (i % 6) + ", Review number " + i + ", with a comma")
+                .collect(Collectors.toList());
+        
+        operations.put("parseProduct", (thread, random) -> CsvParser.parseProduct(
+                productLines.get(random.nextInt(productLines.size()))));
+        operations.put("parseReview", (thread, random) -> CsvParser.parseReview(
+                reviewLines.get(random.nextInt(reviewLines.size()))));
+        
+        Map<String, Predicate<Product>> filters = Map.of(
+                "all", product -> true,
+                "four stars", ProductFilter.rating(Rating.FOUR_STAR),
+                "price 5-6", ProductFilter.priceBetween(BigDecimal.valueOf(5),
+                                                        BigDecimal.valueOf(6)),
+                "best before Jan", ProductFilter.bestBeforeBetween(LocalDate.of(2021, 1, 1),
+                                                                    LocalDate.of(2021, 1, 31)),
+                "name contains 7", product -> product.getName().contains("7"));
+        Map<String, Comparator<Product>> sorters = Map.of(
+                "rating", Comparator.comparing(Product::getRating).reversed(),
+                "price", Comparator.comparing(Product::getPrice));
+        
+        for (String benchmark : benchmarks) {
+            for (int threads : threadCounts) {
+                if (benchmark.equals("printProducts")) {
+                    for (Map.Entry<String, Predicate<Product>> filter : filters.entrySet()) {
+                        for (Map.Entry<String, Comparator<Product>> sorter : sorters.entrySet()) {
+                            harness.run("printProducts " + filter.getKey() + " by "
+                                        + sorter.getKey(), threads,
+                                        (thread, random) -> {
+                                            pm.printProducts(filter.getValue(),
+                                                             sorter.getValue(), null, PAGE_SIZE,
+                                                             "en-GB", Writer.nullWriter());
+                                            return null;
+                                        });
+                        }
+                    }
+                } else if (operations.containsKey(benchmark)) {
+                    harness.run(LABELS.getOrDefault(benchmark, benchmark), threads,
+                                operations.get(benchmark));
+                } else if (!benchmark.equals("loadAllData")) {
+                    System.err.println("Unknown benchmark " + benchmark);
+                    return;
+                }
+            }
+        }
+    }
+    
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>(defaults);
+        
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            
+            options.put(args[i].equals(FORK) ? FORK : args[i].substring(1), args[i + 1]);
+        }
+        
+        return options;
+    }
+    
+    private static int[] parseList(String list) {
+        return Arrays.stream(list.split(","))
+                     .mapToInt(value -> Integer.parseInt(value.trim()))
+                     .toArray();
+    }
+}
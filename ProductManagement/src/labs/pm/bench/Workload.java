@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+import labs.pm.metrics.Histogram;
+
+/**
+ * {@code Workload} class drives a {@link ProductManager} with a mix of
+ * operations at a target rate, and reports the throughput and the latency
+ * percentiles of each kind of operation.
+ * <br>
+ * Products are chosen with a Zipf distribution, so a few products get most of
+ * the traffic, and each operation uses a locale picked from a weighted mix.
+ * Operations are scheduled at fixed intervals and their latency is measured
+ * from the time they were due, so a stall delays and counts against every
+ * operation that should have run during it.
+ * <br>
+ * Usage: {@code Workload [-folder <folder>] [-products <count>]
+ * [-reviews <count>] [-rate <ops/s>] [-duration <seconds>] [-threads <count>]
+ * [-zipf <exponent>] [-mix <op=weight,...>] [-locales <tag=weight,...>]}.
+ * Operations are read, list, discount, review and report. The data folder is
+ * generated with {@link CatalogueGenerator} when it does not exist.
+ *
+ * @author apellet
+ */
+public class Workload {
+    private static final Map<String, String> defaults = Map.of(
+            "folder", Path.of(System.getProperty("java.io.tmpdir"), "pm-workload").toString(),
+            "products", "10000",
+            "reviews", "5",
+            "rate", "1000",
+            "duration", "30",
+            "threads", "8",
+            "zipf", "0.99",
+            "mix", "read=70,list=5,discount=5,review=15,report=5",
+            "locales", "en-GB=40,en-US=30,fr-FR=15,en-CA=15");
+    
+    private final ProductManager pm;
+    private final ZipfSampler products;
+    private final WeightedChoice<String> operations;
+    private final WeightedChoice<String> locales;
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> failures = new LinkedHashMap<>();
+    
+    private Workload(ProductManager pm, int productCount, double exponent,
+                     WeightedChoice<String> operations, WeightedChoice<String> locales) {
+        this.pm = pm;
+        this.products = new ZipfSampler(productCount, exponent);
+        this.operations = operations;
+        this.locales = locales;
+        
+        for (String operation : operations.values) {
+            latencies.put(operation, new Histogram());
+            failures.put(operation, new AtomicLong());
+        }
+    }
+    
+    /**
+     * @param args the command line arguments
+     * @throws Exception if the workload cannot run
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(defaults);
+        
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        
+        Path folder = Path.of(options.get("folder"));
+        int productCount = Integer.parseInt(options.get("products"));
+        
+        if (Files.notExists(folder.resolve("data"))) {
+            System.out.printf("Generating %,d products in %s%n", productCount, folder);
+            CatalogueGenerator.generate(folder.resolve("data"), productCount,
+                                        Integer.parseInt(options.get("reviews")), 42);
+        }
+        
+        Files.createDirectories(folder.resolve("reports"));
+        System.setProperty("labs.pm.data.folder", folder.resolve("data").toString());
+        System.setProperty("labs.pm.reports.folder", folder.resolve("reports").toString());
+        System.setProperty("labs.pm.temp.folder", folder.resolve("temp").toString());
+        System.setProperty("labs.pm.catalogue.file", folder.resolve("none.dat").toString());
+        System.setProperty("labs.pm.log.file", folder.resolve("reviews.log").toString());
+        
+        WeightedChoice<String> locales = WeightedChoice.parse(options.get("locales"));
+        
+        for (String languageTag : locales.values) {
+            if (!ProductManager.getSupportedLocales().contains(languageTag)) {
+                throw new IllegalArgumentException("Unsupported locale " + languageTag
+                        + ", expected one of " + ProductManager.getSupportedLocales());
+            }
+        }
+        
+        Workload workload = new Workload(ProductManager.getInstance(), productCount,
+                                         Double.parseDouble(options.get("zipf")),
+                                         WeightedChoice.parse(options.get("mix")),
+                                         locales);
+        
+        workload.run(Double.parseDouble(options.get("rate")),
+                     Integer.parseInt(options.get("duration")),
+                     Integer.parseInt(options.get("threads")));
+    }
+    
+    private void run(double rate, int seconds, int threads) throws InterruptedException {
+        long interval = (long) (1e9 * threads / rate);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(threads);
+        
+        System.out.printf("Running %,.0f ops/s for %d s on %d threads%n", rate, seconds, threads);
+        
+        for (int i = 0; i < threads; i++) {
+            SplittableRandom random = new SplittableRandom(i);
+            long first = start + interval * i / threads;
+            
+            Thread thread = new Thread(() -> {
+                for (long due = first; due < end; due += interval) {
+                    long wait = due - System.nanoTime();
+                    
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    
+                    String operation = operations.next(random);
+                    
+                    try {
+                        if (!execute(operation, random)) {
+                            failures.get(operation).incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failures.get(operation).incrementAndGet();
+                    }
+                    
+                    latencies.get(operation).record(System.nanoTime() - due);
+                }
+                
+                done.countDown();
+            }, "workload-" + i);
+            
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        done.await();
+        report(System.nanoTime() - start);
+    }
+    
+    private boolean execute(String operation, SplittableRandom random) throws Exception {
+        int id = products.next(random) + 1;
+        String languageTag = locales.next(random);
+        
+        switch (operation) {
+            case "read":
+                return pm.getRatingHistogram(id) != null;
+            case "list":
+                pm.printProducts(product -> product.getId() % 100 == id % 100,
+                                 (p1, p2) -> p2.getRating().compareTo(p1.getRating()),
+                                 null, 20, languageTag, new StringBuilder());
+                return true;
+            case "discount":
+                return !pm.getDiscount(languageTag).isEmpty();
+            case "review":
+                return pm.reviewProduct(id, Rating.values()[random.nextInt(5) + 1],
+                                        "Workload review") != null;
+            case "report":
+                return pm.printProductReportAsync(id, languageTag, "Workload")
+                         .thenApply(file -> true)
+                         .exceptionally(e -> false)
+                         .join();
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+    
+    private void report(long elapsed) {
+        System.out.printf("%-10s %12s %10s %10s %10s %10s %10s %10s %8s%n", "operation",
+                          "ops/s", "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us",
+                          "max us", "failed");
+        
+        latencies.forEach((operation, histogram) -> System.out.printf(
+                "%-10s %,12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %8d%n",
+                operation, histogram.getCount() * 1e9 / elapsed, histogram.getMean() / 1e3,
+                histogram.getPercentile(50) / 1e3, histogram.getPercentile(90) / 1e3,
+                histogram.getPercentile(99) / 1e3, histogram.getPercentile(99.9) / 1e3,
+                histogram.getMax() / 1e3, failures.get(operation).get()));
+    }
+    
+    /**
+     * Draws ranks from {@code 0} to {@code n - 1} with a probability
+     * proportional to {@code 1 / (rank + 1)^exponent}.
+     */
+    private static class ZipfSampler {
+        private final double[] cumulative;
+        
+        private ZipfSampler(int n, double exponent) {
+            cumulative = new double[n];
+            double total = 0;
+            
+            for (int i = 0; i < n; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = total;
+            }
+            
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= total;
+            }
+        }
+        
+        private int next(SplittableRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            
+            return Math.min((index >= 0) ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+    
+    /**
+     * Picks values according to their weights, as parsed from a list such as
+     * {@code read=70,review=30}.
+     */
+    private static class WeightedChoice<T> {
+        private final List<T> values;
+        private final int[] cumulative;
+        
+        private WeightedChoice(List<T> values, int[] weights) {
+            this.values = values;
+            this.cumulative = new int[weights.length];
+            
+            for (int i = 0, total = 0; i < weights.length; i++) {
+                total += weights[i];
+                cumulative[i] = total;
+            }
+        }
+        
+        private static WeightedChoice<String> parse(String list) {
+            String[] entries = list.split(",");
+            String[] names = new String[entries.length];
+            int[] weights = new int[entries.length];
+            
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].split("=");
+                names[i] = entry[0].trim();
+                weights[i] = Integer.parseInt(entry[1].trim());
+            }
+            
+            return new WeightedChoice<>(List.of(names), weights);
+        }
+        
+        private T next(SplittableRandom random) {
+            int index = Arrays.binarySearch(cumulative,
+                                            random.nextInt(cumulative[cumulative.length - 1]) + 1);
+            
+            return values.get((index >= 0) ? index : -index - 1);
+        }
+    }
+}
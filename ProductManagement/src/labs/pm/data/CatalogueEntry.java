@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.List;
+
+/**
+ * {@code CatalogueEntry} class represents the slot of one product id in the
+ * catalogue: the current {@link Product}, its reviews and their statistics.
+ * <br>
+ * The entry stays in place for the life of the product, and keeps the slot
+ * of the product in the {@link CatalogueSnapshot catalogue snapshots}.
+ * Reviewing a product updates its reviews and statistics in the entry, and a
+ * new immutable {@code Product} is created only when the rounded average
+ * rating changes.
+ * Callers modify an entry under the write lock of its product, while the
+ * current product can be read without a lock.
+ *
+ * @author apellet
+ */
+final class CatalogueEntry {
+    private final int slot;
+    private volatile Product product;
+    private final List<Review> reviews;
+    private final ReviewStatistics statistics;
+    
+    CatalogueEntry(int slot, Product product, List<Review> reviews,
+                   ReviewStatistics statistics) {
+        this.slot = slot;
+        this.product = product;
+        this.reviews = reviews;
+        this.statistics = statistics;
+    }
+    
+    int getSlot() {
+        return slot;
+    }
+    
+    Product getProduct() {
+        return product;
+    }
+    
+    List<Review> getReviews() {
+        return reviews;
+    }
+    
+    ReviewStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Adds a review and applies the new average rating to the product
+     *
+     * @param review the review to add
+     * @return the product with its new rating, which is the current product
+     * when the rating did not change
+     */
+    Product addReview(Review review) {
+        reviews.add(review);
+        statistics.add(review.getRating());
+        
+        return applyAverageRating();
+    }
+    
+    /**
+     * Adds a number of reviews and applies the average rating once
+     *
+     * @param added the reviews to add, which must all have a rating
+     * @return the product with its new rating, which is the current product
+     * when the rating did not change
+     */
+    Product addReviews(List<Review> added) {
+        for (Review review : added) {
+            reviews.add(review);
+            statistics.add(review.getRating());
+        }
+        
+        return applyAverageRating();
+    }
+    
+    private Product applyAverageRating() {
+        Rating rating = statistics.getAverageRating();
+        
+        if (rating != product.getRating()) {
+            product = product.applyRating(rating);
+        }
+        
+        return product;
+    }
+}
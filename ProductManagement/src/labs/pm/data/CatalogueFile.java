@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code CatalogueFile} class reads and writes the whole catalogue as a single
+ * binary file, as an alternative to one product file and one reviews file per
+ * product.
+ * <br>
+ * The file starts with a header, followed by the review blocks of every
+ * product and the product records, sorted by product id. Each product record
+ * points to the review block of its product and carries the review count per
+ * {@link Rating}, so review statistics are known without reading any review.
+ * <br>
+ * {@link #read(Path) Reading} maps the product records and the review blocks
+ * into memory, each of them once. The review block of a product is only
+ * decoded the first time its reviews are used.
+ *
+ * @author apellet
+ */
+final class CatalogueFile {
+    private static final int MAGIC = 0x504D4346;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final byte DRINK = 'D';
+    private static final byte FOOD = 'F';
+    
+    private final Map<Product, List<Review>> products;
+    private final Map<Integer, ReviewStatistics> statistics;
+    
+    private CatalogueFile(Map<Product, List<Review>> products,
+                          Map<Integer, ReviewStatistics> statistics) {
+        this.products = products;
+        this.statistics = statistics;
+    }
+    
+    Map<Product, List<Review>> getProducts() {
+        return products;
+    }
+    
+    Map<Integer, ReviewStatistics> getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Opens a catalogue file and decodes its products. Reviews are returned
+     * as lists that decode their block of the mapped file when first used.
+     * <br>
+     * Review blocks are mapped in as few regions as possible, each of them
+     * under the 2GB limit of a buffer, and every list reads a slice of its
+     * region. The mappings stay valid once the file is closed. The list of a
+     * corrupted review block throws an {@link UncheckedIOException} when it
+     * is first used.
+     *
+     * @param file the catalogue file
+     * @return the products of the catalogue and their review statistics
+     * @throws IOException if the file cannot be read, is not a catalogue file
+     * or is corrupted
+     */
+    static CatalogueFile read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            }
+            
+            header.flip();
+            
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a catalogue file");
+            }
+            
+            int formatVersion = header.getInt();
+            
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported catalogue file version " + formatVersion);
+            }
+            
+            int count = header.getInt();
+            header.getInt();
+            long recordsOffset = header.getLong();
+            long recordsEnd = header.getLong();
+            
+            if (recordsOffset < HEADER_SIZE || recordsEnd < recordsOffset
+                    || recordsEnd > channel.size()
+                    || recordsEnd - recordsOffset > Integer.MAX_VALUE || count < 0
+                    || count > (recordsEnd - recordsOffset) / RECORD_HEADER_SIZE) {
+                throw new IOException("Catalogue file " + file + " is corrupted");
+            }
+            
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, recordsOffset,
+                                                   recordsEnd - recordsOffset);
+            MappedByteBuffer region = null;
+            long regionOffset = 0;
+            
+            Map<Product, List<Review>> products = new HashMap<>(count * 4 / 3 + 1);
+            Map<Integer, ReviewStatistics> statistics = new HashMap<>(count * 4 / 3 + 1);
+            
+            try {
+                for (int i = 0; i < count; i++) {
+                    int id = records.getInt();
+                    long reviewOffset = records.getLong();
+                    int reviewLength = records.getInt();
+                    int reviewCount = records.getInt();
+                    int[] histogram = new int[Rating.values().length];
+                    Product product = readProduct(records, id, histogram);
+                    
+                    if (reviewOffset < HEADER_SIZE || reviewLength < 0
+                            || reviewOffset + reviewLength > recordsOffset
+                            || reviewCount < 0 || reviewCount > reviewLength) {
+                        throw new IOException("Catalogue file " + file + " is corrupted");
+                    }
+                    
+                    if (region == null || reviewOffset < regionOffset
+                            || reviewOffset + reviewLength - regionOffset > region.capacity()) {
+                        regionOffset = reviewOffset;
+                        region = channel.map(FileChannel.MapMode.READ_ONLY, regionOffset,
+                                Math.min(Integer.MAX_VALUE, recordsOffset - regionOffset));
+                    }
+                    
+                    products.put(product, new MappedReviews(
+                            region.slice((int) (reviewOffset - regionOffset), reviewLength),
+                            reviewCount));
+                    statistics.put(id, new ReviewStatistics(histogram));
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Catalogue file " + file + " is corrupted", e);
+            }
+            
+            return new CatalogueFile(products, statistics);
+        }
+    }
+    
+    /**
+     * Writes the catalogue to a new file, then moves it over {@code file},
+     * so a reader never sees a partly written catalogue.
+     *
+     * @param file the catalogue file
+     * @param entries the products and their reviews
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, Collection<CatalogueEntry> entries) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".new");
+        List<CatalogueEntry> sorted = new ArrayList<>(entries);
+        sorted.sort((e1, e2) -> Integer.compare(e1.getProduct().getId(),
+                                                e2.getProduct().getId()));
+        
+        long[] reviewOffsets = new long[sorted.size()];
+        int[] reviewLengths = new int[sorted.size()];
+        
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel, HEADER_SIZE);
+            
+            for (int i = 0; i < sorted.size(); i++) {
+                reviewOffsets[i] = out.position();
+                
+                for (Review review : sorted.get(i).getReviews()) {
+                    out.put((byte) review.getRating().ordinal());
+                    out.putBytes(review.getComments().getBytes(StandardCharsets.UTF_8));
+                }
+                
+                reviewLengths[i] = (int) (out.position() - reviewOffsets[i]);
+            }
+            
+            long recordsOffset = out.position();
+            
+            for (int i = 0; i < sorted.size(); i++) {
+                CatalogueEntry entry = sorted.get(i);
+                
+                out.putInt(entry.getProduct().getId());
+                out.putLong(reviewOffsets[i]);
+                out.putInt(reviewLengths[i]);
+                out.putInt(entry.getReviews().size());
+                writeProduct(out, entry.getProduct(), entry.getReviews());
+            }
+            
+            long recordsEnd = out.position();
+            
+            out.flush();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                  .putInt(FORMAT_VERSION)
+                  .putInt(sorted.size())
+                  .putInt(0)
+                  .putLong(recordsOffset)
+                  .putLong(recordsEnd)
+                  .flip();
+            
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            
+            channel.force(true);
+        }
+        
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static void writeProduct(Output out, Product product, List<Review> reviews)
+            throws IOException {
+        int[] histogram = new int[Rating.values().length];
+        reviews.forEach(review -> histogram[review.getRating().ordinal()]++);
+        
+        out.put((product instanceof Food) ? FOOD : DRINK);
+        out.putBytes(product.getName().getBytes(StandardCharsets.UTF_8));
+        out.putInt(product.getPrice().scale());
+        out.putBytes(product.getPrice().unscaledValue().toByteArray());
+        out.put((byte) product.getRating().ordinal());
+        
+        if (product instanceof Food) {
+            out.putLong(product.getBestBefore().toEpochDay());
+        }
+        
+        for (int count : histogram) {
+            out.putInt(count);
+        }
+    }
+    
+    private static Product readProduct(ByteBuffer in, int id, int[] histogram)
+            throws IOException {
+        byte type = in.get();
+        String name = new String(getBytes(in), StandardCharsets.UTF_8);
+        int scale = in.getInt();
+        BigDecimal price = new BigDecimal(new BigInteger(getBytes(in)), scale);
+        Rating rating = Rateable.convert(in.get());
+        LocalDate bestBefore = (type == FOOD) ? LocalDate.ofEpochDay(in.getLong()) : null;
+        
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = in.getInt();
+        }
+        
+        return (type == FOOD)
+                ? new Food(id, name, price, rating, bestBefore)
+                : new Drink(id, name, price, rating);
+    }
+    
+    private static byte[] getBytes(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[checkLength(in.getInt(), in)];
+        in.get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Checks a length read from a catalogue file, which cannot be negative or
+     * exceed the bytes left in its buffer
+     */
+    private static int checkLength(int length, ByteBuffer in) throws IOException {
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Invalid length " + length + " in catalogue file");
+        }
+        
+        return length;
+    }
+    
+    /**
+     * Buffers writes to a file channel and keeps track of the file position,
+     * which may go beyond the 2GB limit of a single buffer.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long position;
+        
+        private Output(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+        
+        long position() {
+            return position + buffer.position();
+        }
+        
+        void put(byte value) throws IOException {
+            ensure(Byte.BYTES);
+            buffer.put(value);
+        }
+        
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+        
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+        
+        void putBytes(byte[] value) throws IOException {
+            putInt(value.length);
+            
+            for (int offset = 0; offset < value.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), value.length - offset);
+                buffer.put(value, offset, length);
+                offset += length;
+            }
+        }
+        
+        void flush() throws IOException {
+            buffer.flip();
+            
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            
+            buffer.clear();
+        }
+        
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+    
+    /**
+     * A list of reviews that is decoded from its slice of the mapped catalogue
+     * file the first time it is used. Callers guard it with the lock of its
+     * product, but two readers of the same product may share a read lock, so
+     * decoding itself is guarded by a lock of its own. That lock is not a
+     * monitor, so a virtual thread decoding reviews does not pin its carrier
+     * thread while it waits for the file.
+     */
+    private static final class MappedReviews extends AbstractList<Review>
+            implements RandomAccess {
+        private final int count;
+        private final Lock decoding = new ReentrantLock();
+        private ByteBuffer block;
+        private volatile List<Review> reviews;
+        
+        private MappedReviews(ByteBuffer block, int count) {
+            this.block = block;
+            this.count = count;
+        }
+        
+        @Override
+        public Review get(int index) {
+            return reviews().get(index);
+        }
+        
+        @Override
+        public int size() {
+            List<Review> loaded = reviews;
+            return (loaded == null) ? count : loaded.size();
+        }
+        
+        @Override
+        public Review set(int index, Review review) {
+            return reviews().set(index, review);
+        }
+        
+        @Override
+        public void add(int index, Review review) {
+            reviews().add(index, review);
+            modCount++;
+        }
+        
+        @Override
+        public Review remove(int index) {
+            modCount++;
+            return reviews().remove(index);
+        }
+        
+        private List<Review> reviews() {
+            List<Review> loaded = reviews;
+            
+            if (loaded == null) {
+                try {
+                    decoding.lock();
+                    loaded = reviews;
+                    
+                    if (loaded == null) {
+                        loaded = decode();
+                        reviews = loaded;
+                        block = null;
+                    }
+                } finally {
+                    decoding.unlock();
+                }
+            }
+            
+            return loaded;
+        }
+        
+        private List<Review> decode() {
+            List<Review> result = new ReviewList(count + 1);
+            
+            try {
+                for (int i = 0; i < count; i++) {
+                    Rating rating = Rateable.convert(block.get());
+                    result.add(new Review(rating, new String(getBytes(block),
+                                                             StandardCharsets.UTF_8)));
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new UncheckedIOException(new IOException("Reviews are corrupted", e));
+            }
+            
+            return result;
+        }
+    }
+}
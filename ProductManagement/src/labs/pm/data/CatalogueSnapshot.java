@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * {@code CatalogueSnapshot} class represents an immutable, point-in-time view
+ * of the products in the catalogue, with their ratings and discount totals.
+ * <br>
+ * Writers publish a new snapshot after each write batch, and readers query
+ * the current one without taking any lock. Products are kept by catalogue
+ * slot in persistent arrays, so publishing a snapshot copies a few small
+ * nodes instead of the whole catalogue. Each snapshot carries the version it
+ * was published at, so a reader can tell whether writes have happened since.
+ * <br>
+ * A snapshot can be passed to successive calls of
+ * {@link ProductManager#findProducts(CatalogueSnapshot, java.util.function.Predicate,
+ * java.util.Comparator, Product, int) findProducts} to page through the same
+ * view of the catalogue.
+ *
+ * @author apellet
+ */
+public final class CatalogueSnapshot {
+    private static final Rating[] RATINGS = Rating.values();
+    
+    private final long version;
+    private final int productCount;
+    private final PersistentArray<Product> products;
+    private final PersistentArray<Long>[] ratings;
+    private final DiscountTotals discounts;
+    private final ProductIndexes indexes;
+    
+    private CatalogueSnapshot(long version, int productCount, PersistentArray<Product> products,
+                              PersistentArray<Long>[] ratings, DiscountTotals discounts,
+                              ProductIndexes indexes) {
+        this.version = version;
+        this.productCount = productCount;
+        this.products = products;
+        this.ratings = ratings;
+        this.discounts = discounts;
+        this.indexes = indexes;
+    }
+    
+    /**
+     * Creates an empty snapshot
+     *
+     * @param indexes the indexes of the products that will be added to it
+     * @return a snapshot without products, at version {@code 0}
+     */
+    static CatalogueSnapshot empty(ProductIndexes indexes) {
+        @SuppressWarnings("unchecked")
+        PersistentArray<Long>[] ratings =
+                (PersistentArray<Long>[]) new PersistentArray<?>[RATINGS.length];
+        
+        for (int i = 0; i < RATINGS.length; i++) {
+            ratings[i] = PersistentArray.empty();
+        }
+        
+        return new CatalogueSnapshot(0, 0, PersistentArray.empty(), ratings,
+                                     DiscountTotals.EMPTY, indexes);
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public int getProductCount() {
+        return productCount;
+    }
+    
+    /**
+     * Creates the next snapshot, with the current products of some catalogue
+     * entries, which are added or replace the products in their slots
+     *
+     * @param changed the entries that were created or re-rated
+     * @return the new snapshot
+     */
+    CatalogueSnapshot with(Collection<CatalogueEntry> changed) {
+        return update(this, changed);
+    }
+    
+    /**
+     * Creates the next snapshot, with only the products of some catalogue
+     * entries
+     *
+     * @param indexes the indexes of the new products
+     * @param entries the entries of the new catalogue
+     * @return the new snapshot
+     */
+    CatalogueSnapshot replace(ProductIndexes indexes, Collection<CatalogueEntry> entries) {
+        CatalogueSnapshot empty = empty(indexes);
+        
+        return update(new CatalogueSnapshot(version, 0, empty.products, empty.ratings,
+                                            empty.discounts, indexes), entries);
+    }
+    
+    ProductIndexes getIndexes() {
+        return indexes;
+    }
+    
+    DiscountTotals getDiscounts() {
+        return discounts;
+    }
+    
+    Stream<Product> products() {
+        return products.stream();
+    }
+    
+    Stream<Product> withRating(Rating rating) {
+        List<Product> found = new ArrayList<>();
+        
+        ratings[rating.ordinal()].forEach((word, index) -> {
+            for (long bits = word; bits != 0; bits &= bits - 1) {
+                found.add(products.get((index << 6) | Long.numberOfTrailingZeros(bits)));
+            }
+        });
+        
+        return found.stream();
+    }
+    
+    Stream<Product> withPrice(BigDecimal min, BigDecimal max) {
+        return inSlots(indexes.withPrice(min, max));
+    }
+    
+    Stream<Product> withBestBefore(LocalDate from, LocalDate to) {
+        return inSlots(indexes.withBestBefore(from, to));
+    }
+    
+    /**
+     * Finds the products of some slots. Slots indexed after this snapshot was
+     * published have no product in it and are skipped.
+     */
+    private Stream<Product> inSlots(Collection<Integer> slots) {
+        return slots.stream()
+                    .map(products::get)
+                    .filter(Objects::nonNull);
+    }
+    
+    private static CatalogueSnapshot update(CatalogueSnapshot base,
+                                            Collection<CatalogueEntry> changed) {
+        PersistentArray.Builder<Product> products = base.products.toBuilder();
+        @SuppressWarnings("unchecked")
+        PersistentArray.Builder<Long>[] ratings =
+                (PersistentArray.Builder<Long>[]) new PersistentArray.Builder<?>[RATINGS.length];
+        DiscountTotals.Builder discounts = base.discounts.toBuilder();
+        int productCount = base.productCount;
+        
+        for (int i = 0; i < RATINGS.length; i++) {
+            ratings[i] = base.ratings[i].toBuilder();
+        }
+        
+        for (CatalogueEntry entry : changed) {
+            Product product = entry.getProduct();
+            Product previous = products.get(entry.getSlot());
+            
+            products.set(entry.getSlot(), product);
+            
+            if (previous == null) {
+                productCount++;
+                setRated(ratings[product.getRating().ordinal()], entry.getSlot(), true);
+                discounts.add(product);
+            } else if (previous.getRating() != product.getRating()) {
+                setRated(ratings[previous.getRating().ordinal()], entry.getSlot(), false);
+                setRated(ratings[product.getRating().ordinal()], entry.getSlot(), true);
+                discounts.updateRating(previous, product);
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        PersistentArray<Long>[] built =
+                (PersistentArray<Long>[]) new PersistentArray<?>[RATINGS.length];
+        
+        for (int i = 0; i < RATINGS.length; i++) {
+            built[i] = ratings[i].build();
+        }
+        
+        return new CatalogueSnapshot(base.version + 1, productCount, products.build(), built,
+                                     discounts.build(), base.indexes);
+    }
+    
+    /**
+     * Sets or clears the bit of a slot in a rating bitmap, whose elements are
+     * words of 64 slots
+     */
+    private static void setRated(PersistentArray.Builder<Long> bitmap, int slot, boolean rated) {
+        Long word = bitmap.get(slot >>> 6);
+        long bits = (word != null) ? word : 0;
+        
+        bits = rated ? bits | (1L << slot) : bits & ~(1L << slot);
+        bitmap.set(slot >>> 6, (bits != 0) ? bits : null);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.time.LocalDate;
+
+/**
+ * {@code CsvParser} class reads the product and review lines of the data
+ * files directly from a {@link CharSequence}.
+ * <br>
+ * A product line holds the product type ({@code D} or {@code F}), id, name,
+ * price, rating and best before date. A review line holds the rating followed
+ * by the comments, which run to the end of the line and may contain commas.
+ * <br>
+ * Fields are separated by a comma and optional spaces, and can be enclosed in
+ * double quotes to contain commas, with {@code ""} standing for a quote.
+ * Prices are read exactly as written, without going through a {@code double}.
+ *
+ * @author apellet
+ */
+public final class CsvParser {
+    private CsvParser() {
+    }
+    
+    /**
+     * Parses a product line such as {@code F, 103, Cake, 3.99, 0, 2019-09-19}
+     *
+     * @param text the product line
+     * @return the {@link Drink} or {@link Food} described by the line
+     * @throws ParseException if a field is missing or the type is unknown
+     * @throws NumberFormatException if the id, price or rating is not a number
+     * @throws java.time.DateTimeException if the best before date is invalid
+     */
+    public static Product parseProduct(CharSequence text) throws ParseException {
+        Tokenizer tokens = new Tokenizer(text);
+        
+        char type = tokens.nextChar();
+        int id = tokens.nextInt();
+        String name = tokens.nextString();
+        BigDecimal price = tokens.nextDecimal();
+        Rating rating = Rateable.convert(tokens.nextInt());
+        
+        switch (type) {
+            case 'D':
+                return new Drink(id, name, price, rating);
+            case 'F':
+                return new Food(id, name, price, rating, tokens.nextDate());
+            default:
+                throw new ParseException("Unknown product type " + type, 0);
+        }
+    }
+    
+    /**
+     * Parses a review line such as {@code 4, Nice hot cup of tea}
+     *
+     * @param text the review line
+     * @return the review described by the line
+     * @throws ParseException if a field is missing
+     * @throws NumberFormatException if the rating is not a number
+     */
+    public static Review parseReview(CharSequence text) throws ParseException {
+        Tokenizer tokens = new Tokenizer(text);
+        
+        Rating rating = Rateable.convert(tokens.nextInt());
+        
+        return new Review(rating, tokens.remainder());
+    }
+    
+    private static final class Tokenizer {
+        private static final int MAX_LONG_DIGITS = 18;
+        
+        private final CharSequence text;
+        private final int length;
+        private int position;
+        private int start;
+        private int end;
+        private boolean quoted;
+        
+        private Tokenizer(CharSequence text) {
+            this.text = text;
+            this.length = text.length();
+        }
+        
+        char nextChar() throws ParseException {
+            next();
+            
+            if (end - start != 1) {
+                throw new ParseException("Expected a single character field", start);
+            }
+            
+            return text.charAt(start);
+        }
+        
+        int nextInt() throws ParseException {
+            next();
+            return Integer.parseInt(text, start, end, 10);
+        }
+        
+        String nextString() throws ParseException {
+            next();
+            return value();
+        }
+        
+        BigDecimal nextDecimal() throws ParseException {
+            next();
+            
+            int i = start;
+            boolean negative = false;
+            
+            if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                negative = text.charAt(i) == '-';
+                i++;
+            }
+            
+            if (i == end || end - i > MAX_LONG_DIGITS) {
+                return new BigDecimal(text.subSequence(start, end).toString());
+            }
+            
+            long unscaled = 0;
+            int scale = -1;
+            boolean digits = false;
+            
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                
+                if (c >= '0' && c <= '9') {
+                    unscaled = unscaled * 10 + (c - '0');
+                    digits = true;
+                    
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else if (c == '.' && scale < 0) {
+                    scale = 0;
+                } else {
+                    return new BigDecimal(text.subSequence(start, end).toString());
+                }
+            }
+            
+            if (!digits) {
+                throw new NumberFormatException("No digits in decimal "
+                                                + text.subSequence(start, end));
+            }
+            
+            return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+        }
+        
+        LocalDate nextDate() throws ParseException {
+            next();
+            
+            if (end - start == 10 && text.charAt(start + 4) == '-' && text.charAt(start + 7) == '-') {
+                return LocalDate.of(Integer.parseInt(text, start, start + 4, 10),
+                                    Integer.parseInt(text, start + 5, start + 7, 10),
+                                    Integer.parseInt(text, start + 8, start + 10, 10));
+            }
+            
+            return LocalDate.parse(text.subSequence(start, end));
+        }
+        
+        /**
+         * Returns everything left on the line as a single field, unquoting it
+         * if the whole remainder is enclosed in quotes.
+         */
+        String remainder() throws ParseException {
+            skipSpaces();
+            
+            if (position >= length) {
+                throw new ParseException("Missing field", position);
+            }
+            
+            start = position;
+            end = length;
+            
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            
+            quoted = end - start >= 2 && text.charAt(start) == '"' && text.charAt(end - 1) == '"';
+            
+            if (quoted) {
+                start++;
+                end--;
+            }
+            
+            position = length;
+            
+            return value();
+        }
+        
+        private void next() throws ParseException {
+            skipSpaces();
+            
+            if (position >= length) {
+                throw new ParseException("Missing field", position);
+            }
+            
+            if (text.charAt(position) == '"') {
+                quoted = true;
+                start = ++position;
+                
+                while (true) {
+                    if (position >= length) {
+                        throw new ParseException("Unterminated quoted field", start - 1);
+                    }
+                    
+                    if (text.charAt(position) == '"') {
+                        if (position + 1 < length && text.charAt(position + 1) == '"') {
+                            position += 2;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        position++;
+                    }
+                }
+                
+                end = position++;
+                skipSpaces();
+            } else {
+                quoted = false;
+                start = position;
+                
+                while (position < length && text.charAt(position) != ',') {
+                    position++;
+                }
+                
+                end = position;
+                
+                while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            
+            if (position < length) {
+                if (text.charAt(position) != ',') {
+                    throw new ParseException("Expected a comma", position);
+                }
+                
+                position++;
+            }
+        }
+        
+        private void skipSpaces() {
+            while (position < length && text.charAt(position) == ' ') {
+                position++;
+            }
+        }
+        
+        private String value() {
+            String value = text.subSequence(start, end).toString();
+            
+            return quoted ? value.replace("\"\"", "\"") : value;
+        }
+    }
+}
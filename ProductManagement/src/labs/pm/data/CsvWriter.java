@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+/**
+ * {@code CsvWriter} class formats products and reviews as the lines of the
+ * data files, in the layout read back by {@link CsvParser}.
+ *
+ * @author apellet
+ */
+final class CsvWriter {
+    private CsvWriter() {
+    }
+    
+    static String formatProduct(Product product) {
+        StringBuilder line = new StringBuilder();
+        
+        line.append((product instanceof Food) ? 'F' : 'D')
+            .append(", ").append(product.getId())
+            .append(", ");
+        appendField(line, product.getName());
+        line.append(", ").append(product.getPrice().toPlainString())
+            .append(", ").append(product.getRating().ordinal())
+            .append(", ").append(product.getBestBefore());
+        
+        return line.toString();
+    }
+    
+    static String formatReview(Review review) {
+        StringBuilder line = new StringBuilder();
+        
+        line.append(review.getRating().ordinal()).append(", ");
+        
+        String comments = review.getComments();
+        
+        if (comments.isEmpty() || comments.startsWith("\"") || hasOuterWhitespace(comments)) {
+            quote(line, comments);
+        } else {
+            line.append(comments);
+        }
+        
+        return line.toString();
+    }
+    
+    private static void appendField(StringBuilder line, String value) {
+        if (value.isEmpty() || value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || hasOuterWhitespace(value)) {
+            quote(line, value);
+        } else {
+            line.append(value);
+        }
+    }
+    
+    /**
+     * Tells whether a non-empty value starts or ends with whitespace, which
+     * the parser would trim from an unquoted field
+     */
+    private static boolean hasOuterWhitespace(String value) {
+        return Character.isWhitespace(value.charAt(0))
+                || Character.isWhitespace(value.charAt(value.length() - 1));
+    }
+    
+    private static void quote(StringBuilder line, String value) {
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
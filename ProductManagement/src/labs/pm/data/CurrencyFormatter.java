@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * {@code CurrencyFormatter} class formats money amounts the way the currency
+ * {@link NumberFormat} of a locale does, without sharing a {@code NumberFormat}
+ * between threads.
+ * <br>
+ * The prefixes, suffixes, separators and number of fraction digits are read
+ * once from the locale's {@link DecimalFormat}. The formatter is immutable and
+ * safe to share between threads.
+ *
+ * @author apellet
+ */
+final class CurrencyFormatter {
+    private final String positivePrefix;
+    private final String positiveSuffix;
+    private final String negativePrefix;
+    private final String negativeSuffix;
+    private final char groupingSeparator;
+    private final char decimalSeparator;
+    private final int groupingSize;
+    private final int fractionDigits;
+    private final RoundingMode roundingMode;
+    
+    CurrencyFormatter(Locale locale) {
+        DecimalFormat format = (DecimalFormat) NumberFormat.getCurrencyInstance(locale);
+        DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+        
+        positivePrefix = format.getPositivePrefix();
+        positiveSuffix = format.getPositiveSuffix();
+        negativePrefix = format.getNegativePrefix();
+        negativeSuffix = format.getNegativeSuffix();
+        groupingSeparator = symbols.getGroupingSeparator();
+        decimalSeparator = symbols.getMonetaryDecimalSeparator();
+        groupingSize = format.isGroupingUsed() ? format.getGroupingSize() : 0;
+        fractionDigits = format.getMaximumFractionDigits();
+        roundingMode = format.getRoundingMode();
+    }
+    
+    String format(BigDecimal amount) {
+        BigDecimal rounded = amount.setScale(fractionDigits, roundingMode);
+        boolean negative = amount.signum() < 0;
+        String digits = rounded.unscaledValue().abs().toString();
+        int integerDigits = digits.length() - fractionDigits;
+        
+        StringBuilder result = new StringBuilder(digits.length() + 16);
+        result.append(negative ? negativePrefix : positivePrefix);
+        
+        if (integerDigits <= 0) {
+            result.append('0');
+        } else {
+            for (int i = 0; i < integerDigits; i++) {
+                if (groupingSize > 0 && i > 0 && (integerDigits - i) % groupingSize == 0) {
+                    result.append(groupingSeparator);
+                }
+                
+                result.append(digits.charAt(i));
+            }
+        }
+        
+        if (fractionDigits > 0) {
+            result.append(decimalSeparator);
+            
+            for (int i = integerDigits; i < 0; i++) {
+                result.append('0');
+            }
+            
+            result.append(digits, Math.max(integerDigits, 0), digits.length());
+        }
+        
+        return result.append(negative ? negativeSuffix : positiveSuffix).toString();
+    }
+}
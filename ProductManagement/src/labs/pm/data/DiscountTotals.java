@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@code DiscountTotals} class represents the total discount of the catalogue
+ * per {@link Rating}, in cents, at one point in time. Totals are immutable,
+ * and a {@link Builder} derives new totals as products are created and
+ * re-rated.
+ * <br>
+ * Whether a product's discount applies depends on the time: drinks are
+ * discounted during happy hour and food on its best before date. Totals are
+ * therefore kept for all drinks and for the food of each best before date, and
+ * the time only decides which of them are added up. The whole catalogue
+ * switches at once when happy hour starts or ends and when the date changes.
+ *
+ * @author apellet
+ */
+final class DiscountTotals {
+    private static final Rating[] RATINGS = Rating.values();
+    
+    static final DiscountTotals EMPTY = new DiscountTotals(new int[RATINGS.length],
+                                                           new long[RATINGS.length],
+                                                           PersistentArray.empty());
+    
+    private final int[] products;
+    private final long[] drinks;
+    private final PersistentArray<long[]> food;
+    
+    private DiscountTotals(int[] products, long[] drinks, PersistentArray<long[]> food) {
+        this.products = products;
+        this.drinks = drinks;
+        this.food = food;
+    }
+    
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+    
+    /**
+     * Adds up the discounts that apply at a given time
+     *
+     * @param epoch the current pricing epoch
+     * @return the total discount per rating, for the ratings that have at
+     * least one product
+     */
+    Map<Rating, BigDecimal> getTotals(PricingEpoch epoch) {
+        long day = epoch.getDate().toEpochDay();
+        long[] foodCents = (day == (int) day) ? food.get((int) day) : null;
+        boolean happyHour = epoch.isHappyHour();
+        Map<Rating, BigDecimal> totals = new EnumMap<>(Rating.class);
+        
+        for (Rating rating : RATINGS) {
+            int i = rating.ordinal();
+            
+            if (products[i] > 0) {
+                long cents = (happyHour ? drinks[i] : 0)
+                        + ((foodCents != null) ? foodCents[i] : 0);
+                totals.put(rating, BigDecimal.valueOf(cents, 2));
+            }
+        }
+        
+        return totals;
+    }
+    
+    /**
+     * Derives new totals from existing ones. Food totals are kept by best
+     * before day, and the days that do not fit an {@code int}, millions of
+     * years away, are never discounted and not kept.
+     */
+    static final class Builder {
+        private final int[] products;
+        private final long[] drinks;
+        private final PersistentArray.Builder<long[]> food;
+        
+        private Builder(DiscountTotals totals) {
+            this.products = totals.products.clone();
+            this.drinks = totals.drinks.clone();
+            this.food = totals.food.toBuilder();
+        }
+        
+        void add(Product product) {
+            add(product, product.getRating(), 1);
+        }
+        
+        void updateRating(Product previous, Product product) {
+            if (previous.getRating() != product.getRating()) {
+                add(previous, previous.getRating(), -1);
+                add(product, product.getRating(), 1);
+            }
+        }
+        
+        DiscountTotals build() {
+            return new DiscountTotals(products.clone(), drinks.clone(), food.build());
+        }
+        
+        private void add(Product product, Rating rating, int sign) {
+            long cents = product.getFullDiscountCents();
+            
+            products[rating.ordinal()] += sign;
+            
+            if (product instanceof Drink) {
+                drinks[rating.ordinal()] += sign * cents;
+            } else if (product instanceof Food) {
+                long day = product.getBestBefore().toEpochDay();
+                
+                if (day == (int) day) {
+                    long[] totals = food.get((int) day);
+                    long[] updated = (totals == null) ? new long[RATINGS.length] : totals.clone();
+                    
+                    updated[rating.ordinal()] += sign * cents;
+                    food.set((int) day, updated);
+                }
+            }
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package labs.pm.data;
 
 import java.math.BigDecimal;
-import java.time.LocalTime;
 
 /**
  * {@code Drink} class represents properties and behaviors of a specific
@@ -29,17 +28,20 @@ public final class Drink extends Product {
     Drink(int id, String name, BigDecimal price, Rating rating) {
         super(id, name, price, rating);
     }
+    
+    private Drink(Drink drink, Rating rating) {
+        super(drink, rating);
+    }
 
     @Override
     public Product applyRating(Rating rating) {
-        return new Drink(getId(), getName(), getPrice(), rating);
+        return new Drink(this, rating);
     }
 
     @Override
-    public BigDecimal getDiscount() {
-        LocalTime now = LocalTime.now();
-        return (now.isAfter(LocalTime.of(17, 30)) && now.isBefore(LocalTime.of(18, 30)))
-                ? super.getDiscount()
+    public BigDecimal getDiscount(PricingEpoch epoch) {
+        return epoch.isHappyHour()
+                ? super.getDiscount(epoch)
                 : BigDecimal.ZERO;
     }
 }
@@ -32,16 +32,21 @@ public final class Food extends Product {
         super(id, name, price, rating);
         this.bestBefore = bestBefore;
     }
+    
+    private Food(Food food, Rating rating) {
+        super(food, rating);
+        this.bestBefore = food.bestBefore;
+    }
 
     @Override
     public Product applyRating(Rating rating) {
-        return new Food(getId(), getName(), getPrice(), rating, bestBefore);
+        return new Food(this, rating);
     }
 
     @Override
-    public BigDecimal getDiscount() {
-        return bestBefore.isEqual(LocalDate.now())
-                ? super.getDiscount()
+    public BigDecimal getDiscount(PricingEpoch epoch) {
+        return bestBefore.isEqual(epoch.getDate())
+                ? super.getDiscount(epoch)
                 : BigDecimal.ZERO;
     }
 
@@ -55,6 +60,11 @@ public final class Food extends Product {
         return bestBefore;
     }
 
+    @Override
+    public LocalDate getBestBefore(PricingEpoch epoch) {
+        return bestBefore;
+    }
+
     @Override
     public String toString() {
         return super.toString() + ", " + bestBefore;
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@code ImportResult} class represents the outcome of a bulk product import:
+ * how many products were created, the ids that were already in the catalogue
+ * and the definitions that could not be turned into a product.
+ *
+ * @author apellet
+ */
+public final class ImportResult {
+    private final int created;
+    private final List<Integer> duplicates;
+    private final List<Failure> failures;
+    
+    ImportResult(int created, List<Integer> duplicates, List<Failure> failures) {
+        this.created = created;
+        this.duplicates = Collections.unmodifiableList(duplicates);
+        this.failures = Collections.unmodifiableList(failures);
+    }
+    
+    public int getCreated() {
+        return created;
+    }
+    
+    /**
+     * Get the ids of the products that were not created because a product
+     * with the same id already existed, either in the catalogue or earlier in
+     * the import
+     *
+     * @return the duplicate ids, in no particular order
+     */
+    public List<Integer> getDuplicates() {
+        return duplicates;
+    }
+    
+    public List<Failure> getFailures() {
+        return failures;
+    }
+    
+    @Override
+    public String toString() {
+        return "ImportResult{created=" + created + ", duplicates=" + duplicates.size()
+                + ", failures=" + failures.size() + "}";
+    }
+    
+    /**
+     * {@code Failure} class represents a definition that was rejected, with
+     * the reason why. A {@code null} definition has no id and is reported
+     * with id {@code 0}.
+     */
+    public static final class Failure {
+        private final int id;
+        private final String reason;
+        
+        Failure(int id, String reason) {
+            this.id = id;
+            this.reason = reason;
+        }
+        
+        public int getId() {
+            return id;
+        }
+        
+        public String getReason() {
+            return reason;
+        }
+        
+        @Override
+        public String toString() {
+            return "Failure{id=" + id + ", reason=" + reason + "}";
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code MessageTemplate} class is a {@link java.text.MessageFormat} pattern
+ * compiled once into literal text and argument positions.
+ * <br>
+ * Only plain {@code {n}} arguments are supported, with the same quoting rules
+ * as {@code MessageFormat}. Arguments are inserted with
+ * {@link String#valueOf(Object)}, so numbers and dates must be formatted by
+ * the caller. Templates are immutable and safe to share between threads.
+ *
+ * @author apellet
+ */
+final class MessageTemplate {
+    private final String[] literals;
+    private final int[] arguments;
+    private final int literalLength;
+    
+    MessageTemplate(String pattern) {
+        List<String> text = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            
+            if (c == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == '{' && !quoted) {
+                int close = pattern.indexOf('}', i);
+                
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unmatched brace in " + pattern);
+                }
+                
+                try {
+                    indexes.add(Integer.parseInt(pattern.substring(i + 1, close).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Unsupported argument in " + pattern, e);
+                }
+                
+                text.add(literal.toString());
+                literal.setLength(0);
+                i = close;
+            } else {
+                literal.append(c);
+            }
+        }
+        
+        text.add(literal.toString());
+        
+        literals = text.toArray(new String[0]);
+        arguments = indexes.stream().mapToInt(Integer::intValue).toArray();
+        literalLength = text.stream().mapToInt(String::length).sum();
+    }
+    
+    String format(Object... values) {
+        StringBuilder result = new StringBuilder(literalLength + 16 * arguments.length);
+        
+        for (int i = 0; i < arguments.length; i++) {
+            result.append(literals[i]);
+            
+            int argument = arguments[i];
+            
+            if (argument < values.length) {
+                result.append(values[argument]);
+            } else {
+                result.append('{').append(argument).append('}');
+            }
+        }
+        
+        return result.append(literals[arguments.length]).toString();
+    }
+}
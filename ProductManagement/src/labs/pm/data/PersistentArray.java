@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@code PersistentArray} class represents an immutable, sparse array of
+ * values indexed by an unsigned {@code int}, stored as a tree of 32-way
+ * nodes.
+ * <br>
+ * Setting elements copies only the nodes on the paths to them and shares all
+ * the others with the original array. An update therefore allocates a few
+ * small nodes however large the array is, and every version stays valid for
+ * the readers that still hold it.
+ * <br>
+ * Each node has one more element than it has children, which marks the
+ * {@link Builder} that copied it, if any, so a builder can tell the nodes it
+ * may still change in place.
+ *
+ * @author apellet
+ */
+final class PersistentArray<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final PersistentArray<?> EMPTY =
+            new PersistentArray<>(new Object[WIDTH + 1], 0);
+    
+    private final Object[] root;
+    private final int shift;
+    
+    private PersistentArray(Object[] root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+    
+    @SuppressWarnings("unchecked")
+    static <T> PersistentArray<T> empty() {
+        return (PersistentArray<T>) EMPTY;
+    }
+    
+    /**
+     * Get the element at an index
+     *
+     * @param index the index, read as an unsigned number
+     * @return the element, or {@code null} if it was never set
+     */
+    T get(int index) {
+        return get(root, shift, index);
+    }
+    
+    /**
+     * Creates a copy of this array with one element replaced
+     *
+     * @param index the index, read as an unsigned number
+     * @param value the new element
+     * @return the new array
+     */
+    PersistentArray<T> with(int index, T value) {
+        Object[] top = root;
+        int level = shift;
+        
+        while ((index >>> level) >= WIDTH) {
+            Object[] parent = new Object[WIDTH + 1];
+            parent[0] = top;
+            top = parent;
+            level += BITS;
+        }
+        
+        return new PersistentArray<>(with(top, level, index, value), level);
+    }
+    
+    Builder<T> toBuilder() {
+        return new Builder<>(root, shift);
+    }
+    
+    /**
+     * Passes every element that is set to an action, with its index, in
+     * unsigned index order
+     *
+     * @param action the action to perform on each element
+     */
+    void forEach(ObjIntConsumer<? super T> action) {
+        forEach(root, shift, 0, action);
+    }
+    
+    /**
+     * @return the elements that are set, in unsigned index order
+     */
+    Stream<T> stream() {
+        return StreamSupport.stream(new Elements(), false);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T get(Object[] root, int shift, int index) {
+        if ((index >>> shift) >= WIDTH) {
+            return null;
+        }
+        
+        Object[] node = root;
+        
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+            
+            if (node == null) {
+                return null;
+            }
+        }
+        
+        return (T) node[index & MASK];
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> void forEach(Object[] node, int level, int base,
+                                    ObjIntConsumer<? super T> action) {
+        for (int i = 0; i < WIDTH; i++) {
+            Object child = node[i];
+            
+            if (child != null) {
+                int index = base | (i << level);
+                
+                if (level == 0) {
+                    action.accept((T) child, index);
+                } else {
+                    forEach((Object[]) child, level - BITS, index, action);
+                }
+            }
+        }
+    }
+    
+    private static Object[] with(Object[] node, int level, int index, Object value) {
+        Object[] copy = (node == null) ? new Object[WIDTH + 1] : node.clone();
+        int i = (index >>> level) & MASK;
+        
+        copy[WIDTH] = null;
+        copy[i] = (level == 0) ? value : with((Object[]) copy[i], level - BITS, index, value);
+        
+        return copy;
+    }
+    
+    /**
+     * Walks the whole tree when a stream is consumed in one go, as most
+     * stream operations do, instead of stepping from element to element.
+     */
+    private final class Elements implements Spliterator<T> {
+        private Iterator<T> remaining;
+        private boolean walked;
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (remaining == null) {
+                List<T> elements = new ArrayList<>();
+                forEachRemaining(elements::add);
+                remaining = elements.iterator();
+            }
+            
+            if (!remaining.hasNext()) {
+                return false;
+            }
+            
+            action.accept(remaining.next());
+            
+            return true;
+        }
+        
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (remaining != null) {
+                remaining.forEachRemaining(action);
+            } else if (!walked) {
+                walked = true;
+                forEach((value, index) -> action.accept(value));
+            }
+        }
+        
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+        
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+        
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+    
+    /**
+     * Sets any number of elements before building a new array. Nodes are
+     * copied the first time they change, and then updated in place, so a
+     * batch of updates copies each node at most once.
+     */
+    static final class Builder<T> {
+        private Object owner = new Object();
+        private Object[] root;
+        private int shift;
+        
+        private Builder(Object[] root, int shift) {
+            this.root = root;
+            this.shift = shift;
+        }
+        
+        T get(int index) {
+            return PersistentArray.get(root, shift, index);
+        }
+        
+        void set(int index, T value) {
+            while ((index >>> shift) >= WIDTH) {
+                Object[] parent = own(null);
+                parent[0] = root;
+                root = parent;
+                shift += BITS;
+            }
+            
+            root = own(root);
+            Object[] node = root;
+            
+            for (int level = shift; level > 0; level -= BITS) {
+                int i = (index >>> level) & MASK;
+                Object[] child = own((Object[]) node[i]);
+                node[i] = child;
+                node = child;
+            }
+            
+            node[index & MASK] = value;
+        }
+        
+        /**
+         * Builds the array. Later changes to the builder copy the nodes they
+         * touch again, so they never show through the built array.
+         *
+         * @return the new array
+         */
+        PersistentArray<T> build() {
+            owner = new Object();
+            
+            return new PersistentArray<>(root, shift);
+        }
+        
+        private Object[] own(Object[] node) {
+            if (node != null && node[WIDTH] == owner) {
+                return node;
+            }
+            
+            Object[] copy = (node == null) ? new Object[WIDTH + 1] : node.clone();
+            copy[WIDTH] = owner;
+            
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Objects;
+
+/**
+ * {@code PricingEpoch} class represents the moment at which discounts are
+ * calculated: the current date and whether it is happy hour.
+ * <br>
+ * An epoch is read from the clock once and can then be used to price any
+ * number of products. The clock defaults to the system clock and can be
+ * replaced with {@link ProductManager#setClock(Clock)}.
+ *
+ * @author apellet
+ */
+public final class PricingEpoch {
+    private static final LocalTime HAPPY_HOUR_START = LocalTime.of(17, 30);
+    private static final LocalTime HAPPY_HOUR_END = LocalTime.of(18, 30);
+    
+    private static volatile Clock clock = Clock.systemDefaultZone();
+    
+    private final LocalDate date;
+    private final boolean happyHour;
+    
+    private PricingEpoch(LocalDate date, boolean happyHour) {
+        this.date = Objects.requireNonNull(date);
+        this.happyHour = happyHour;
+    }
+    
+    /**
+     * Reads the current epoch from the product management clock
+     *
+     * @return the current epoch
+     */
+    public static PricingEpoch now() {
+        return now(clock);
+    }
+    
+    /**
+     * Reads the current epoch from a given clock
+     *
+     * @param clock the clock to read
+     * @return the current epoch
+     */
+    public static PricingEpoch now(Clock clock) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        LocalTime time = now.toLocalTime();
+        
+        return new PricingEpoch(now.toLocalDate(),
+                                time.isAfter(HAPPY_HOUR_START) && time.isBefore(HAPPY_HOUR_END));
+    }
+    
+    public static PricingEpoch of(LocalDate date, boolean happyHour) {
+        return new PricingEpoch(date, happyHour);
+    }
+    
+    static Clock getClock() {
+        return clock;
+    }
+    
+    static void setClock(Clock clock) {
+        PricingEpoch.clock = Objects.requireNonNull(clock);
+    }
+    
+    public LocalDate getDate() {
+        return date;
+    }
+    
+    /**
+     * Tells whether drinks are discounted
+     *
+     * @return true between 17:30 and 18:30
+     */
+    public boolean isHappyHour() {
+        return happyHour;
+    }
+    
+    @Override
+    public String toString() {
+        return date + (happyHour ? ", happy hour" : "");
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        
+        if (obj instanceof PricingEpoch) {
+            final PricingEpoch other = (PricingEpoch) obj;
+            return happyHour == other.happyHour && date.equals(other.date);
+        }
+        
+        return false;
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * date.hashCode() + Boolean.hashCode(happyHour);
+    }
+}
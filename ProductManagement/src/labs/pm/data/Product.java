@@ -44,20 +44,70 @@ public abstract class Product implements Rateable<Product>, Serializable {
      */
     public static final BigDecimal DISCOUNT_RATE = BigDecimal.valueOf(0.1);
 
+    private static final Rating[] RATINGS = Rating.values();
+
     private final int id;
     private final String name;
-    private final BigDecimal price;
-    private final Rating rating;
+    private final long unscaledPrice;
+    private final byte priceScale;
+    private final byte rating;
 
+    /**
+     * Creates a product
+     * <br>
+     * The price is kept as a whole number of its smallest unit, so it must
+     * have at most 18 significant digits, and its discount is totalled in
+     * cents, so it must be under about 9 * 10^17.
+     *
+     * @param id the product id
+     * @param name the product name
+     * @param price the product price
+     * @param rating the product rating
+     * @throws ArithmeticException if the price cannot be stored exactly or its
+     * discount cannot be counted in cents
+     */
     public Product(int id, String name, BigDecimal price, Rating rating) {
         this.id = id;
         this.name = name;
-        this.price = price;
-        this.rating = rating;
+        this.unscaledPrice = price.unscaledValue().longValueExact();
+        this.priceScale = (byte) price.scale();
+        this.rating = (byte) rating.ordinal();
+        
+        if (priceScale != price.scale()) {
+            throw new ArithmeticException("Price " + price + " has too many decimals");
+        }
+        
+        getFullDiscountCents();
+    }
+
+    /**
+     * Creates a copy of a product with another rating
+     *
+     * @param product the product to copy
+     * @param rating the rating of the copy
+     */
+    Product(Product product, Rating rating) {
+        this.id = product.id;
+        this.name = product.name;
+        this.unscaledPrice = product.unscaledPrice;
+        this.priceScale = product.priceScale;
+        this.rating = (byte) rating.ordinal();
     }
     
     public LocalDate getBestBefore() {
-        return LocalDate.now();
+        return getBestBefore(PricingEpoch.now());
+    }
+    
+    /**
+     * Get the best before date of the product at a given epoch
+     * <br>
+     * Products that do not expire are best before the current date
+     *
+     * @param epoch the current pricing epoch
+     * @return the best before date
+     */
+    public LocalDate getBestBefore(PricingEpoch epoch) {
+        return epoch.getDate();
     }
     
     public int getId() {
@@ -69,12 +119,12 @@ public abstract class Product implements Rateable<Product>, Serializable {
     }
 
     public BigDecimal getPrice() {
-        return price;
+        return BigDecimal.valueOf(unscaledPrice, priceScale);
     }
 
     @Override
     public Rating getRating() {
-        return rating;
+        return RATINGS[rating];
     }
     
     /**
@@ -84,14 +134,42 @@ public abstract class Product implements Rateable<Product>, Serializable {
      * @return a {@link java.math.BigDecimal BigDecimal} value of the discount
      */
     public BigDecimal getDiscount() {
-        return price.multiply(DISCOUNT_RATE)
+        return getDiscount(PricingEpoch.now());
+    }
+    
+    /**
+     * Calculates discount at a given epoch, so that any number of products
+     * can be priced with a single read of the clock
+     *
+     * @param epoch the current pricing epoch
+     * @return a {@link java.math.BigDecimal BigDecimal} value of the discount
+     */
+    public BigDecimal getDiscount(PricingEpoch epoch) {
+        return getFullDiscount();
+    }
+    
+    /**
+     * Calculates discount regardless of the conditions under which it applies
+     *
+     * @return a {@link java.math.BigDecimal BigDecimal} value of the discount
+     */
+    final BigDecimal getFullDiscount() {
+        return getPrice().multiply(DISCOUNT_RATE)
                     .setScale(2, RoundingMode.HALF_UP);
     }
+    
+    /**
+     * @return the full discount as a whole number of cents
+     * @throws ArithmeticException if the discount does not fit a {@code long}
+     */
+    final long getFullDiscountCents() {
+        return getFullDiscount().movePointRight(2).longValueExact();
+    }
 
     @Override
     public String toString() {
-        return id + ", " + name + ", " + price + ", " + getDiscount() + ", "
-                + rating.getStars();
+        return id + ", " + name + ", " + getPrice() + ", " + getDiscount() + ", "
+                + getRating().getStars();
     }
 
     @Override
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * {@code ProductDefinition} class represents the properties of a drink or a
+ * food product to create, as passed to
+ * {@link ProductManager#createProducts(java.util.Iterator)}.
+ * <br>
+ * Definitions are not checked when they are built, so a feed can be read
+ * without failing on its first bad row; invalid definitions are reported by
+ * the import instead.
+ *
+ * @author apellet
+ */
+public final class ProductDefinition {
+    private final int id;
+    private final String name;
+    private final BigDecimal price;
+    private final Rating rating;
+    private final LocalDate bestBefore;
+    
+    private ProductDefinition(int id, String name, BigDecimal price, Rating rating,
+                              LocalDate bestBefore) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.rating = rating;
+        this.bestBefore = bestBefore;
+    }
+    
+    public static ProductDefinition drink(int id, String name, BigDecimal price,
+                                          Rating rating) {
+        return new ProductDefinition(id, name, price, rating, null);
+    }
+    
+    public static ProductDefinition food(int id, String name, BigDecimal price,
+                                         Rating rating, LocalDate bestBefore) {
+        return new ProductDefinition(id, name, price, rating,
+                                     Objects.requireNonNull(bestBefore, "bestBefore"));
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public BigDecimal getPrice() {
+        return price;
+    }
+    
+    public Rating getRating() {
+        return rating;
+    }
+    
+    /**
+     * Get the best before date of a food product
+     *
+     * @return the best before date, or {@code null} for a drink
+     */
+    public LocalDate getBestBefore() {
+        return bestBefore;
+    }
+    
+    /**
+     * Creates the product this definition describes
+     *
+     * @return a {@link Food} if the definition has a best before date, a
+     * {@link Drink} otherwise
+     * @throws IllegalArgumentException if a property is missing
+     * @throws ArithmeticException if the price cannot be stored
+     */
+    Product toProduct() {
+        if (name == null || price == null || rating == null) {
+            throw new IllegalArgumentException("Product " + id
+                    + " has no name, price or rating");
+        }
+        
+        return (bestBefore != null)
+                ? new Food(id, name, price, rating, bestBefore)
+                : new Drink(id, name, price, rating);
+    }
+    
+    @Override
+    public String toString() {
+        return "ProductDefinition{id=" + id + ", name=" + name + ", price=" + price
+                + ", rating=" + rating + ", bestBefore=" + bestBefore + "}";
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * {@code ProductFilter} class represents product filters that the
+ * {@link ProductManager} can answer from its secondary indexes instead of
+ * scanning the whole catalogue.
+ * <br>
+ * Filters are created with the {@link #rating(Rating) rating},
+ * {@link #priceBetween(BigDecimal, BigDecimal) priceBetween} and
+ * {@link #bestBeforeBetween(LocalDate, LocalDate) bestBeforeBetween} factory
+ * methods. Combining a filter with {@link #and(Predicate) and} keeps using
+ * the index of the first filter.
+ *
+ * @author apellet
+ */
+public abstract class ProductFilter implements Predicate<Product> {
+    
+    ProductFilter() {
+    }
+    
+    /**
+     * Finds the products of a snapshot that may match this filter
+     *
+     * @param snapshot the snapshot of the catalogue and its indexes
+     * @return a superset of the matching products of the snapshot
+     */
+    abstract Stream<Product> candidates(CatalogueSnapshot snapshot);
+    
+    public static ProductFilter rating(Rating rating) {
+        return new ProductFilter() {
+            @Override
+            Stream<Product> candidates(CatalogueSnapshot snapshot) {
+                return snapshot.withRating(rating);
+            }
+            
+            @Override
+            public boolean test(Product product) {
+                return product.getRating() == rating;
+            }
+        };
+    }
+    
+    /**
+     * Selects products whose price is between two prices, inclusive. When
+     * {@code min} is above {@code max}, no product is selected.
+     *
+     * @param min the lowest price
+     * @param max the highest price
+     * @return the filter
+     */
+    public static ProductFilter priceBetween(BigDecimal min, BigDecimal max) {
+        return new ProductFilter() {
+            @Override
+            Stream<Product> candidates(CatalogueSnapshot snapshot) {
+                return snapshot.withPrice(min, max);
+            }
+            
+            @Override
+            public boolean test(Product product) {
+                return product.getPrice().compareTo(min) >= 0
+                        && product.getPrice().compareTo(max) <= 0;
+            }
+        };
+    }
+    
+    /**
+     * Selects {@link Food} products whose best before date is between two
+     * dates, inclusive. When {@code from} is after {@code to}, no product is
+     * selected.
+     *
+     * @param from the earliest best before date
+     * @param to the latest best before date
+     * @return the filter
+     */
+    public static ProductFilter bestBeforeBetween(LocalDate from, LocalDate to) {
+        return new ProductFilter() {
+            @Override
+            Stream<Product> candidates(CatalogueSnapshot snapshot) {
+                return snapshot.withBestBefore(from, to);
+            }
+            
+            @Override
+            public boolean test(Product product) {
+                return product instanceof Food
+                        && !product.getBestBefore().isBefore(from)
+                        && !product.getBestBefore().isAfter(to);
+            }
+        };
+    }
+    
+    @Override
+    public ProductFilter and(Predicate<? super Product> other) {
+        ProductFilter first = this;
+        
+        return new ProductFilter() {
+            @Override
+            Stream<Product> candidates(CatalogueSnapshot snapshot) {
+                return first.candidates(snapshot);
+            }
+            
+            @Override
+            public boolean test(Product product) {
+                return first.test(product) && other.test(product);
+            }
+        };
+    }
+}
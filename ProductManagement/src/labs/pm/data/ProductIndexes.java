@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * {@code ProductIndexes} class maintains the secondary indexes of the
+ * catalogue that never change once a product is created: the catalogue slots
+ * of the products by price and, for {@link Food}, by best before date.
+ * <br>
+ * A product is indexed by its writer before it is published in a
+ * {@link CatalogueSnapshot}, and never removed, so the slots found in the
+ * indexes are a superset of the matching products of every snapshot that
+ * shares them. Ratings change as products are reviewed and are indexed in
+ * the snapshots themselves.
+ *
+ * @author apellet
+ */
+final class ProductIndexes {
+    private final NavigableMap<BigDecimal, Set<Integer>> byPrice =
+            new ConcurrentSkipListMap<>();
+    private final NavigableMap<LocalDate, Set<Integer>> byBestBefore =
+            new ConcurrentSkipListMap<>();
+    
+    void add(Product product, int slot) {
+        byPrice.computeIfAbsent(product.getPrice(), price -> ConcurrentHashMap.newKeySet())
+               .add(slot);
+        
+        if (product instanceof Food) {
+            byBestBefore.computeIfAbsent(product.getBestBefore(),
+                                         date -> ConcurrentHashMap.newKeySet())
+                        .add(slot);
+        }
+    }
+    
+    /**
+     * Finds the slots of the products priced between two prices, inclusive.
+     * A range whose minimum is above its maximum holds no product.
+     */
+    Collection<Integer> withPrice(BigDecimal min, BigDecimal max) {
+        return (min.compareTo(max) > 0)
+                ? List.of()
+                : flatten(byPrice.subMap(min, true, max, true));
+    }
+    
+    /**
+     * Finds the slots of the food products best before two dates, inclusive.
+     * A range that ends before it starts holds no product.
+     */
+    Collection<Integer> withBestBefore(LocalDate from, LocalDate to) {
+        return from.isAfter(to)
+                ? List.of()
+                : flatten(byBestBefore.subMap(from, true, to, true));
+    }
+    
+    private static <K> Collection<Integer> flatten(Map<K, Set<Integer>> buckets) {
+        return buckets.values()
+                      .stream()
+                      .flatMap(Set::stream)
+                      .collect(Collectors.toList());
+    }
+}
@@ -16,236 +16,866 @@
  */
 package labs.pm.data;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
-import java.text.NumberFormat;
 import java.text.ParseException;
+import java.time.Clock;
+import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.time.format.FormatStyle;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import javax.management.JMException;
+import labs.pm.metrics.Metrics;
+import labs.pm.metrics.Timer;
 
 public class ProductManager {
-    private static final ProductManager pm = new ProductManager();
-    
-    private final static Map<String, ResourceFormatter> formatters =
-            Map.of("en-GB", new ResourceFormatter(Locale.UK),
-                   "en-US", new ResourceFormatter(Locale.US),
-                   "fr-FR", new ResourceFormatter(Locale.FRANCE),
-                   "en-CA", new ResourceFormatter(Locale.CANADA));
-    
     private static final Logger logger =
             Logger.getLogger(ProductManager.class.getName());
     
     public static Set<String> getSupportedLocales() {
-        return formatters.keySet();
+        return ResourceFormatter.getSupportedLocales();
     }
     
     public static ProductManager getInstance() {
-        return pm;
+        return InstanceHolder.pm;
     }
     
-    private Map<Product, List<Review>> products = new HashMap<>();
+    private static final int LOCK_STRIPES = 64;
+    private static final int LOAD_CHUNK_SIZE = 1024;
+    
+    private static final DateTimeFormatter snapshotTime =
+            DateTimeFormatter.ofPattern("uuuuMMdd'T'HHmmssSSSSSSSSS")
+                             .withZone(ZoneOffset.UTC);
+    
+    private final Map<Integer, CatalogueEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger slots = new AtomicInteger();
+    private final AtomicReference<CatalogueSnapshot> snapshot =
+            new AtomicReference<>(CatalogueSnapshot.empty(new ProductIndexes()));
     
     private final ResourceBundle config = ResourceBundle.getBundle("labs.pm.data.config");   
-    private final MessageFormat productFormat =
-            new MessageFormat(config.getString("product.data.format"));
-    private final MessageFormat reviewFormat =
-            new MessageFormat(config.getString("review.data.format"));
     
-    private final Path reportsFolder = Path.of(config.getString("reports.folder"));
-    private final Path dataFolder = Path.of(config.getString("data.folder"));
-    private final Path tempFolder = Path.of(config.getString("temp.folder"));
+    private final Path reportsFolder = Path.of(getSetting("reports.folder"));
+    private final Path dataFolder = Path.of(getSetting("data.folder"));
+    private final Path tempFolder = Path.of(getSetting("temp.folder"));
+    private final Path catalogueFile = Path.of(getSetting("catalogue.file"));
+    private final Path logFile = Path.of(getSetting("log.file"));
+    private final int loadThreads = Integer.parseInt(getSetting("data.load.threads"));
+    private final int importBatchSize = Integer.parseInt(getSetting("import.batch.size"));
+    
+    private final Metrics metrics = new Metrics(Boolean.parseBoolean(getSetting("metrics.enabled")));
+    private final Timer createTimer = metrics.timer("createProduct");
+    private final Timer createProductsTimer = metrics.timer("createProducts");
+    private final Timer reviewTimer = metrics.timer("reviewProduct");
+    private final Timer reviewProductsTimer = metrics.timer("reviewProducts");
+    private final Timer findTimer = metrics.timer("findProduct");
+    private final Timer findProductsTimer = metrics.timer("findProducts");
+    private final Timer printProductsTimer = metrics.timer("printProducts");
+    private final Timer reportTimer = metrics.timer("printProductReport");
+    private final Timer histogramTimer = metrics.timer("getRatingHistogram");
+    private final Timer discountTimer = metrics.timer("getDiscount");
+    private final Timer saveCatalogueTimer = metrics.timer("saveCatalogue");
+    private final Timer saveDataTimer = metrics.timer("saveData");
+    private final Timer dumpTimer = metrics.timer("dumpData");
+    private final Timer restoreTimer = metrics.timer("restoreData");
+    private final Timer loadTimer = metrics.timer("loadAllData");
+    
+    private final StripedLock locks = new StripedLock(LOCK_STRIPES, metrics);
+    private final RenderCache<ByteBuffer> reportCache = new RenderCache<>(
+            Integer.parseInt(getSetting("report.cache.size")), "report.cache", metrics);
+    private final RenderCache<String> lineCache = new RenderCache<>(
+            Integer.parseInt(getSetting("line.cache.size")), "line.cache", metrics);
     
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private final Lock writeLock = lock.writeLock();
-    private final Lock readLock = lock.readLock();
+    private ReviewLog reviewLog;
+    
+    private final ExecutorService reportExecutor = createReportExecutor(
+            Integer.parseInt(getSetting("report.threads")),
+            Integer.parseInt(getSetting("report.queue.size")));
+    private final ReportWriter reportWriter = new ReportWriter(
+            Integer.parseInt(getSetting("report.threads")) + 1);
     
     private ProductManager() {
+        ThreadPoolExecutor reports = (ThreadPoolExecutor) reportExecutor;
+        
+        metrics.gauge("products", entries::size);
+        metrics.gauge("catalogue.version", () -> snapshot.get().getVersion());
+        metrics.gauge("report.queue.depth", () -> reports.getQueue().size());
+        metrics.gauge("report.active", reports::getActiveCount);
+        
+        try {
+            metrics.register("labs.pm:type=ProductManager,name=Metrics");
+        } catch (JMException e) {
+            logger.log(Level.WARNING, e, () -> "Error registering metrics " + e.getMessage());
+        }
+        
         loadAllData();
     }
     
+    /**
+     * Returns the metrics of this manager: a timer for each operation and for
+     * the product locks, and gauges such as the depth of the report queue.
+     * Metrics are also registered with the platform MBean server, and are
+     * enabled by the {@code metrics.enabled} setting.
+     *
+     * @return the metrics of this manager
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    private static ExecutorService createReportExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                task -> {
+                    Thread thread = new Thread(task, "report-writer-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
     public Product createProduct(int id, String name, BigDecimal price,
                                  Rating rating) {
-        Product product = null;
+        Product product;
         
         try {
-            writeLock.lock();
-            
             product = new Drink(id, name, price, rating);
-            products.putIfAbsent(product, new ArrayList<>());
         } catch (Exception e) {
-            logger.log(Level.INFO, "Error adding product " + e.getMessage());
+            logger.log(Level.INFO, "Error adding product {0}", e.getMessage());
             return null;
-        } finally {
-            writeLock.unlock();
         }
-
-        return product;
+        
+        return createProduct(product);
     }
     
     public Product createProduct(int id, String name, BigDecimal price,
                                  Rating rating, LocalDate bestBefore) {
-        Product product = null;
+        Product product;
         
         try {
-            writeLock.lock();
-            
             product = new Food(id, name, price, rating, bestBefore);
-            products.putIfAbsent(product, new ArrayList<>());
         } catch (Exception e) {
-            logger.log(Level.INFO, "Error adding product " + e.getMessage());
+            logger.log(Level.INFO, "Error adding product {0}", e.getMessage());
             return null;
+        }
+        
+        return createProduct(product);
+    }
+    
+    private Product createProduct(Product product) {
+        long start = createTimer.start();
+        CompletableFuture<Void> logged = null;
+        Lock writeLock = locks.writeLock(product.getId());
+        
+        try {
+            writeLock.lock();
+            
+            if (addProduct(product) && reviewLog != null) {
+                logged = reviewLog.appendProduct(product);
+            }
         } finally {
             writeLock.unlock();
         }
         
+        awaitLogged(logged, createTimer, start);
+        createTimer.stop(start);
+        
         return product;
     }
     
+    /**
+     * Adds a product to the catalogue and publishes it in a new snapshot.
+     * Callers must hold the write lock of the product.
+     */
+    private boolean addProduct(Product product) {
+        CatalogueEntry entry = newEntry(product);
+        
+        if (entry == null) {
+            return false;
+        }
+        
+        publish(List.of(entry));
+        
+        return true;
+    }
+    
+    /**
+     * Creates the catalogue entry of a new product in the next free slot, and
+     * indexes it. Callers must hold the write lock of the product, then
+     * publish the entry.
+     *
+     * @return the new entry, or {@code null} if the product id already exists
+     */
+    private CatalogueEntry newEntry(Product product) {
+        if (entries.containsKey(product.getId())) {
+            return null;
+        }
+        
+        CatalogueEntry entry = new CatalogueEntry(slots.getAndIncrement(), product,
+                                                  new ReviewList(), new ReviewStatistics());
+        
+        entries.put(product.getId(), entry);
+        snapshot.get().getIndexes().add(product, entry.getSlot());
+        reportCache.invalidate(product.getId());
+        lineCache.invalidate(product.getId());
+        
+        return entry;
+    }
+    
+    /**
+     * Publishes a new snapshot with the current products of some entries.
+     * Callers hold the write locks of the products, so the snapshots of each
+     * product follow its writes in order.
+     */
+    private void publish(Collection<CatalogueEntry> changed) {
+        snapshot.updateAndGet(current -> current.with(changed));
+    }
+    
+    /**
+     * Returns the current snapshot of the catalogue, which reflects every
+     * write completed so far and never changes.
+     * <br>
+     * Pass the same snapshot to successive calls of
+     * {@link #findProducts(CatalogueSnapshot, Predicate, Comparator, Product, int)
+     * findProducts} to page through a stable view of the catalogue, where no
+     * product is skipped or repeated because it was re-rated meanwhile.
+     *
+     * @return an immutable view of the catalogue
+     */
+    public CatalogueSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+    
+    /**
+     * Imports a stream of product definitions.
+     *
+     * @param definitions the products to create
+     * @return the outcome of the import
+     * @see #createProducts(Iterator)
+     */
+    public ImportResult createProducts(Stream<ProductDefinition> definitions) {
+        return createProducts(definitions.iterator());
+    }
+    
+    /**
+     * Imports product definitions, such as the rows of a supplier feed.
+     * <br>
+     * Definitions are read a batch of {@code import.batch.size} at a time.
+     * The products of a batch are built without holding any lock, then added
+     * stripe by stripe, under a single acquisition of each stripe lock, with
+     * one snapshot published per stripe, and appended to the review log in
+     * one go. The call returns once every created product is durable.
+     * <br>
+     * Definitions that cannot be turned into a product, including
+     * {@code null} ones, and products whose id already exists, do not stop
+     * the import and are reported in its result.
+     *
+     * @param definitions the products to create
+     * @return the number of products created, the duplicate ids and the
+     * rejected definitions
+     * @throws UncheckedIOException if the review log cannot be written, in
+     * which case the import stops after the batch that failed
+     */
+    public ImportResult createProducts(Iterator<ProductDefinition> definitions) {
+        long start = createProductsTimer.start();
+        List<List<Product>> batch = new ArrayList<>(LOCK_STRIPES);
+        List<Integer> duplicates = new ArrayList<>();
+        List<ImportResult.Failure> failures = new ArrayList<>();
+        int created = 0;
+        int batched = 0;
+        int read = 0;
+        
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            batch.add(new ArrayList<>());
+        }
+        
+        while (definitions.hasNext()) {
+            ProductDefinition definition = definitions.next();
+            read++;
+            
+            if (definition == null) {
+                failures.add(new ImportResult.Failure(0, "Definition " + read + " is null"));
+            } else {
+                try {
+                    Product product = definition.toProduct();
+                    
+                    batch.get(locks.stripeOf(product.getId())).add(product);
+                    batched++;
+                } catch (RuntimeException e) {
+                    failures.add(new ImportResult.Failure(definition.getId(), e.getMessage()));
+                }
+            }
+            
+            if (batched == importBatchSize || (batched > 0 && !definitions.hasNext())) {
+                created += addProducts(batch, duplicates, start);
+                batched = 0;
+            }
+        }
+        
+        createProductsTimer.stop(start);
+        logger.log(Level.INFO, "Imported {0} products, {1} duplicates, {2} failures",
+                   new Object[]{created, duplicates.size(), failures.size()});
+        
+        return new ImportResult(created, duplicates, failures);
+    }
+    
+    /**
+     * Adds a batch of new products, grouped by stripe, and empties it.
+     * Products whose id is already in the catalogue are skipped and their id
+     * added to {@code duplicates}.
+     *
+     * @return the number of products added
+     */
+    private int addProducts(List<List<Product>> batch, List<Integer> duplicates, long start) {
+        List<CompletableFuture<Void>> logged = new ArrayList<>();
+        int published = 0;
+        
+        for (List<Product> stripe : batch) {
+            if (stripe.isEmpty()) {
+                continue;
+            }
+            
+            List<CatalogueEntry> added = new ArrayList<>(stripe.size());
+            Lock writeLock = locks.writeLock(stripe.get(0).getId());
+            
+            try {
+                writeLock.lock();
+                
+                for (Product product : stripe) {
+                    CatalogueEntry entry = newEntry(product);
+                    
+                    if (entry == null) {
+                        duplicates.add(product.getId());
+                    } else {
+                        added.add(entry);
+                    }
+                }
+                
+                if (!added.isEmpty()) {
+                    publish(added);
+                    
+                    if (reviewLog != null) {
+                        logged.add(reviewLog.appendProducts(
+                                added.stream()
+                                     .map(CatalogueEntry::getProduct)
+                                     .collect(Collectors.toList())));
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            
+            published += added.size();
+            stripe.clear();
+        }
+        
+        awaitLogged(logged, createProductsTimer, start);
+        
+        return published;
+    }
+    
     public Product reviewProduct(int id, Rating rating, String comments) {
+        long start = reviewTimer.start();
+        Product product = null;
+        CompletableFuture<Void> logged = null;
+        Lock writeLock = locks.writeLock(id);
+        
         try {
-            readLock.lock();
-            return reviewProduct(findProduct(id), rating, comments);
+            writeLock.lock();
+            
+            Review review = new Review(rating, comments);
+            product = reviewProduct(findEntry(id), review);
+            
+            if (reviewLog != null) {
+                logged = reviewLog.appendReview(id, review);
+            }
         } catch (ProductManagerException e) {
-            logger.log(Level.INFO, e.getMessage());
+            logger.log(Level.FINE, e::getMessage);
+            reviewTimer.fail(start);
             return null;
         } finally {
-            readLock.unlock();
+            writeLock.unlock();
         }
+        
+        awaitLogged(logged, reviewTimer, start);
+        reviewTimer.stop(start);
+        
+        return product;
     }
     
-    private Product reviewProduct(Product product, Rating rating, String comments) {
-        List<Review> reviews = products.get(product);
-        products.remove(product, reviews);
-        reviews.add(new Review(rating, comments));
+    /**
+     * Adds a review to a product. A new snapshot is only published when the
+     * review changes the rating of the product, since the reviews themselves
+     * are not part of the snapshots.
+     */
+    private Product reviewProduct(CatalogueEntry entry, Review review) {
+        Product previous = entry.getProduct();
+        Product product = entry.addReview(review);
         
-        product = product.applyRating(Rateable.convert((int) Math.round(
-                reviews.stream()
-                       .mapToInt(r -> r.getRating().ordinal())
-                       .average()
-                       .orElse(0))));
-
-        products.put(product, reviews);
+        reportCache.invalidate(product.getId());
+        updateRating(entry, previous);
         
         return product;
     }
     
+    private void updateRating(CatalogueEntry entry, Product previous) {
+        if (entry.getProduct() != previous) {
+            lineCache.invalidate(previous.getId());
+            publish(List.of(entry));
+        }
+    }
+    
+    /**
+     * Adds a burst of reviews.
+     * <br>
+     * Reviews are grouped by product. Each group is added under a single
+     * acquisition of the product lock, the rating of the product is updated
+     * once for the whole group, and the group is appended to the review log
+     * in one go. The call returns once every review is durable.
+     *
+     * @param reviews the reviews to add
+     * @return for each review, in the same order, the reviewed product with
+     * the rating it has after the whole batch, or {@code null} if there is no
+     * product with its id
+     * @throws IllegalArgumentException if a review is {@code null} or has no
+     * rating or comments, in which case none of the reviews is added
+     * @throws UncheckedIOException if the review log cannot be written
+     */
+    public List<Product> reviewProducts(Collection<ProductReview> reviews) {
+        long start = reviewProductsTimer.start();
+        Map<Integer, List<Review>> byProduct = new LinkedHashMap<>();
+        
+        for (ProductReview review : reviews) {
+            if (review == null || review.getRating() == null || review.getComments() == null) {
+                reviewProductsTimer.fail(start);
+                throw new IllegalArgumentException("Incomplete review " + review
+                        + ", no review in the batch was added");
+            }
+            
+            byProduct.computeIfAbsent(review.getProductId(), id -> new ArrayList<>())
+                     .add(new Review(review.getRating(), review.getComments()));
+        }
+        
+        Map<Integer, Product> reviewed = new HashMap<>(byProduct.size() * 4 / 3 + 1);
+        List<CompletableFuture<Void>> logged = new ArrayList<>();
+        
+        byProduct.forEach((id, group) -> {
+            Lock writeLock = locks.writeLock(id);
+            
+            try {
+                writeLock.lock();
+                CatalogueEntry entry = entries.get(id);
+                
+                if (entry == null) {
+                    logger.log(Level.FINE, "Product with id {0} not found", id);
+                    return;
+                }
+                
+                Product previous = entry.getProduct();
+                Product product = entry.addReviews(group);
+                
+                reportCache.invalidate(id);
+                updateRating(entry, previous);
+                reviewed.put(id, product);
+                
+                if (reviewLog != null) {
+                    logged.add(reviewLog.appendReviews(id, group));
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        });
+        
+        awaitLogged(logged, reviewProductsTimer, start);
+        
+        List<Product> results = new ArrayList<>(reviews.size());
+        
+        for (ProductReview review : reviews) {
+            results.add(reviewed.get(review.getProductId()));
+        }
+        
+        reviewProductsTimer.stop(start);
+        
+        return results;
+    }
+    
+    private void awaitLogged(CompletableFuture<Void> logged, Timer timer, long start) {
+        if (logged != null) {
+            awaitLogged(List.of(logged), timer, start);
+        }
+    }
+    
+    /**
+     * Waits until records appended to the review log are durable. Called
+     * after releasing the product locks, so waiting for the fsync does not
+     * block other writers of the products.
+     *
+     * @throws UncheckedIOException if a record could not be written. The
+     * change is in the catalogue, but it does not survive a restart unless
+     * the data is saved first
+     */
+    private void awaitLogged(List<CompletableFuture<Void>> logged, Timer timer, long start) {
+        Throwable failure = null;
+        
+        for (CompletableFuture<Void> record : logged) {
+            try {
+                record.join();
+            } catch (CompletionException e) {
+                failure = e.getCause();
+            }
+        }
+        
+        if (failure != null) {
+            timer.fail(start);
+            throw new UncheckedIOException("Error writing review log " + failure.getMessage(),
+                    (failure instanceof IOException)
+                            ? (IOException) failure
+                            : new IOException(failure));
+        }
+    }
+    
     public void printProductReport(int id, String languageTag, String client) {
+        try {
+            printProductReportAsync(id, languageTag, client).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ProductManagerException) {
+                logger.log(Level.FINE, e.getCause()::getMessage);
+            } else {
+                logger.log(Level.SEVERE, e.getCause(),
+                           () -> "Error printing product report " + e.getCause().getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Prints a product report without waiting for it to be written.
+     * <br>
+     * The product and a copy of its reviews are captured under the product
+     * lock. Sorting, formatting and writing the report then happen on the
+     * report executor, whose queue is bounded by {@code report.queue.size}.
+     * When the queue is full, the report is written by the calling thread,
+     * which slows callers down to the pace of the executor.
+     * <br>
+     * Reports are encoded and written by a {@link ReportWriter}, which
+     * replaces any previous report of the same client. Rendered reports are
+     * cached, up to {@code report.cache.size} of them.
+     * While a product and its reviews do not change, a repeat request writes
+     * the cached report to the file of its client without copying the
+     * reviews or formatting them again.
+     *
+     * @param id the product id
+     * @param languageTag the language of the report
+     * @param client the client the report is for
+     * @return a future completed with the report file, or completed
+     * exceptionally with a {@link ProductManagerException} if there is no
+     * product with this id
+     */
+    public CompletableFuture<Path> printProductReportAsync(int id, String languageTag,
+                                                           String client) {
+        long start = reportTimer.start();
+        ResourceFormatter formatter = ResourceFormatter.getFormatter(languageTag);
+        PricingEpoch epoch = PricingEpoch.now();
+        Product product;
+        int reviewCount;
+        ByteBuffer cached;
+        List<Review> reviews = null;
+        Lock readLock = locks.readLock(id);
+        
         try {
             readLock.lock();
-            printProductReport(findProduct(id), languageTag, client);
+            CatalogueEntry entry = findEntry(id);
+            product = entry.getProduct();
+            reviewCount = entry.getReviews().size();
+            cached = reportCache.get(product, reviewCount, formatter.getLanguageTag(),
+                                     epoch.getDate());
+            
+            if (cached == null) {
+                reviews = new ArrayList<>(entry.getReviews());
+            }
         } catch (ProductManagerException e) {
-            logger.log(Level.INFO, e.getMessage());
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error printing product report " + e.getMessage(), e);
+            reportTimer.fail(start);
+            return CompletableFuture.failedFuture(e);
         } finally {
             readLock.unlock();
         }
+        
+        List<Review> copied = reviews;
+        
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Path file = reportsFolder.resolve(MessageFormat.format(
+                        getSetting("report.file"), String.valueOf(product.getId()), client));
+                
+                if (cached != null) {
+                    reportWriter.write(file, cached);
+                } else {
+                    ByteBuffer report = reportWriter.write(
+                            file, formatProductReport(product, copied, formatter, epoch),
+                            reportCache.isEnabled());
+                    
+                    if (report != null) {
+                        reportCache.put(product, reviewCount, formatter.getLanguageTag(),
+                                        epoch.getDate(), report);
+                    }
+                }
+                
+                reportTimer.stop(start);
+                return file;
+            } catch (IOException e) {
+                reportTimer.fail(start);
+                throw new UncheckedIOException(e);
+            }
+        }, reportExecutor);
     }
     
-    private void printProductReport(Product product, String languageTag, 
-                                    String client) throws IOException {
-        ResourceFormatter formatter =
-                formatters.getOrDefault(languageTag, formatters.get("en-GB"));
+    private List<String> formatProductReport(Product product, List<Review> reviews,
+                                             ResourceFormatter formatter, PricingEpoch epoch) {
+        List<String> report = new ArrayList<>(reviews.size() + 1);
         
-        Path productFile = reportsFolder.resolve(
-                MessageFormat.format(config.getString("report.file"),
-                                     product.getId(),
-                                     client));
+        report.add(formatter.formatProduct(product, epoch));
         
-        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
-                Files.newOutputStream(productFile,
-                                      StandardOpenOption.CREATE),
-                "UTF-8"))) {
-            out.append(formatter.formatProduct(product));
-            out.append('\n');
-            
-            List<Review> reviews = products.get(product);
-            Collections.sort(reviews);
-            
-            if (reviews.isEmpty()) {
-                out.append(formatter.getText("no.review"));
-                out.append('\n');
-            } else {
-                out.append(reviews.stream()
-                                  .map(r -> formatter.formatReview(r) + '\n')
-                                  .collect(Collectors.joining()));
+        Collections.sort(reviews);
+        
+        if (reviews.isEmpty()) {
+            report.add(formatter.getText("no.review"));
+        } else {
+            for (Review review : reviews) {
+                report.add(formatter.formatReview(review));
             }
         }
+        
+        return report;
     }
     
     public void printProducts(Predicate<Product> filter, Comparator<Product> sorter,
                               String languageTag) {
         try {
-            readLock.lock();
+            printProducts(filter, sorter, null, Integer.MAX_VALUE, languageTag, System.out);
+            System.out.println();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e, () -> "Error printing products " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Prints one page of products, one line per product, straight to
+     * {@code out}. Formatted lines are cached, up to
+     * {@code line.cache.size} of them, until their product changes.
+     *
+     * @param filter selects the products to print
+     * @param sorter the order of the products, ties being ordered by id
+     * @param after the last product of the previous page, or {@code null} for
+     * the first page
+     * @param limit the maximum number of products to print
+     * @param languageTag the language of the product lines
+     * @param out where to print the product lines
+     * @throws IOException if {@code out} cannot be written to
+     * @see #findProducts(Predicate, Comparator, Product, int)
+     */
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter,
+                              Product after, int limit, String languageTag,
+                              Appendable out) throws IOException {
+        printProducts(getSnapshot(), filter, sorter, after, limit, languageTag, out);
+    }
+    
+    /**
+     * Prints one page of the products of a snapshot, one line per product,
+     * straight to {@code out}.
+     *
+     * @param snapshot the snapshot of the catalogue to print from
+     * @param filter selects the products to print
+     * @param sorter the order of the products, ties being ordered by id
+     * @param after the last product of the previous page, or {@code null} for
+     * the first page
+     * @param limit the maximum number of products to print
+     * @param languageTag the language of the product lines
+     * @param out where to print the product lines
+     * @throws IOException if {@code out} cannot be written to
+     * @see #findProducts(CatalogueSnapshot, Predicate, Comparator, Product, int)
+     */
+    public void printProducts(CatalogueSnapshot snapshot, Predicate<Product> filter,
+                              Comparator<Product> sorter, Product after, int limit,
+                              String languageTag, Appendable out) throws IOException {
+        long start = printProductsTimer.start();
+        ResourceFormatter formatter = ResourceFormatter.getFormatter(languageTag);
+        PricingEpoch epoch = PricingEpoch.now();
+        
+        try {
+            for (Product product : findProducts(snapshot, filter, sorter, after, limit)) {
+                String line = lineCache.get(product, 0, formatter.getLanguageTag(),
+                                            epoch.getDate());
+                
+                if (line == null) {
+                    line = formatter.formatProduct(product, epoch);
+                    lineCache.put(product, 0, formatter.getLanguageTag(),
+                                  epoch.getDate(), line);
+                }
+                
+                out.append(line).append('\n');
+            }
+        } catch (IOException e) {
+            printProductsTimer.fail(start);
+            throw e;
+        }
+        
+        printProductsTimer.stop(start);
+    }
+    
+    /**
+     * Finds one page of products in a given order.
+     * <br>
+     * Products are filtered first. A {@link ProductFilter} is answered from
+     * the secondary indexes, any other filter is checked against every
+     * product. When a page is smaller than the number of matching products,
+     * only the best {@code limit} products are kept in a bounded heap,
+     * instead of sorting every matching product.
+     * <br>
+     * Products are read from the current {@link #getSnapshot() snapshot}
+     * without taking any lock, so finding products never waits for writers,
+     * and a page reflects every write completed before the call and none made
+     * while it runs.
+     * <br>
+     * To get the next page, pass the last product of this page as
+     * {@code after}, with the same filter and sorter. Pages found this way
+     * each come from the snapshot current at the time, so a product re-rated
+     * between two pages can move across them. Use
+     * {@link #findProducts(CatalogueSnapshot, Predicate, Comparator, Product, int)}
+     * to page through a single snapshot.
+     *
+     * @param filter selects the products to find
+     * @param sorter the order of the products, ties being ordered by id
+     * @param after the last product of the previous page, or {@code null} for
+     * the first page
+     * @param limit the maximum number of products to return
+     * @return up to {@code limit} products that follow {@code after}, in order
+     */
+    public List<Product> findProducts(Predicate<Product> filter, Comparator<Product> sorter,
+                                      Product after, int limit) {
+        return findProducts(getSnapshot(), filter, sorter, after, limit);
+    }
+    
+    /**
+     * Finds one page of the products of a snapshot in a given order.
+     * <br>
+     * Every page of a snapshot comes from the same view of the catalogue, so
+     * paging through it with {@code after} returns each matching product
+     * exactly once, whatever is written meanwhile.
+     *
+     * @param snapshot the snapshot of the catalogue to search
+     * @param filter selects the products to find
+     * @param sorter the order of the products, ties being ordered by id
+     * @param after the last product of the previous page, or {@code null} for
+     * the first page
+     * @param limit the maximum number of products to return
+     * @return up to {@code limit} products that follow {@code after}, in order
+     * @see #getSnapshot()
+     */
+    public List<Product> findProducts(CatalogueSnapshot snapshot, Predicate<Product> filter,
+                                      Comparator<Product> sorter, Product after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        
+        long start = findProductsTimer.start();
+        Comparator<Product> order = sorter.thenComparingInt(Product::getId);
+        Stream<Product> matching = candidates(snapshot, filter).filter(filter);
+        
+        if (after != null) {
+            matching = matching.filter(product -> order.compare(product, after) > 0);
+        }
+        
+        if (limit == Integer.MAX_VALUE) {
+            List<Product> all = matching.sorted(order).collect(Collectors.toList());
+            findProductsTimer.stop(start);
             
-            ResourceFormatter formatter =
-                    formatters.getOrDefault(languageTag, formatters.get("en-GB"));
-
-            StringBuilder txt = new StringBuilder();
-
-            products.keySet()
-                    .stream()
-                    .sorted(sorter)
-                    .filter(filter)
-                    .forEach(p -> txt.append(formatter.formatProduct(p) + '\n'));
-
-            System.out.println(txt);
-        } finally {
-            readLock.unlock();
+            return all;
         }
+        
+        PriorityQueue<Product> top = new PriorityQueue<>(Math.min(limit, 1024) + 1,
+                                                         order.reversed());
+        
+        matching.forEach(product -> {
+            if (top.size() < limit) {
+                top.add(product);
+            } else if (order.compare(product, top.peek()) < 0) {
+                top.poll();
+                top.add(product);
+            }
+        });
+        
+        List<Product> page = new ArrayList<>(top);
+        page.sort(order);
+        findProductsTimer.stop(start);
+        
+        return page;
+    }
+    
+    private static Stream<Product> candidates(CatalogueSnapshot snapshot,
+                                              Predicate<Product> filter) {
+        if (filter instanceof ProductFilter) {
+            return ((ProductFilter) filter).candidates(snapshot);
+        }
+        
+        return snapshot.products();
     }
     
     private Product parseProduct(String text) {
         Product product = null;
         
         try {
-            Object[] values = productFormat.parse(text);
-            
-            int id = Integer.parseInt((String) values[1]);
-            String name = (String) values[2];
-            BigDecimal price = BigDecimal.valueOf(Double.parseDouble((String) values[3]));
-            Rating rating = Rateable.convert(Integer.parseInt((String) values[4]));
-            
-            switch ((String) values[0]) {
-                case "D":
-                    product = new Drink(id, name, price, rating);
-                    break;
-                case "F":
-                    LocalDate bestBefore = LocalDate.parse((String) values[5]);
-                    product = new Food(id, name, price, rating, bestBefore);
-                    break;
-            }
+            product = CsvParser.parseProduct(text);
         } catch (ParseException |
                  NumberFormatException |
-                 DateTimeParseException e) {
-            logger.log(Level.WARNING, "Error parsing product " + text + " " + e.getMessage());
+                 ArithmeticException |
+                 DateTimeException e) {
+            logger.log(Level.WARNING, "Error parsing product {0} {1}",
+                       new Object[] {text, e.getMessage()});
         }
         
         return product;
@@ -255,165 +885,582 @@ public class ProductManager {
         Review review = null;
         
         try {
-            Object[] values = reviewFormat.parse(text);
-            
-            review = new Review(Rateable.convert(Integer.parseInt((String) values[0])),
-                                (String) values[1]);
+            review = CsvParser.parseReview(text);
         } catch (ParseException | NumberFormatException e) {
-            logger.log(Level.WARNING, "Error parsing review " + text);
+            logger.log(Level.WARNING, "Error parsing review {0}", text);
         }
         
         return review;
     }
     
     public Product findProduct(int id) throws ProductManagerException {
+        long start = findTimer.start();
+        
+        try {
+            Product product = findEntry(id).getProduct();
+            findTimer.stop(start);
+            
+            return product;
+        } catch (ProductManagerException e) {
+            findTimer.fail(start);
+            throw e;
+        }
+    }
+    
+    /**
+     * Reads a setting from {@code labs.pm.data.config}. A system property
+     * named {@code labs.pm.} followed by the key takes precedence, so a
+     * benchmark or a test can point the manager at other folders.
+     */
+    private String getSetting(String key) {
+        return System.getProperty("labs.pm." + key, config.getString(key));
+    }
+    
+    private CatalogueEntry findEntry(int id) throws ProductManagerException {
+        CatalogueEntry entry = entries.get(id);
+        
+        if (entry == null) {
+            throw new ProductManagerException("Product with id " + id + " not found");
+        }
+        
+        return entry;
+    }
+    
+    /**
+     * Counts the reviews of a product per {@link Rating}
+     *
+     * @param id the product id
+     * @return the number of reviews for every rating, including ratings that
+     * have no reviews
+     * @throws ProductManagerException if there is no product with this id
+     */
+    public Map<Rating, Integer> getRatingHistogram(int id) throws ProductManagerException {
+        long start = histogramTimer.start();
+        Lock readLock = locks.readLock(id);
+        
         try {
             readLock.lock();
             
-            return products.keySet()
-                           .stream()
-                           .filter(p -> p.getId() == id)
-                           .findFirst()
-                           .orElseThrow(() -> 
-                                   new ProductManagerException("Product with id " + id + " not found"));
+            Map<Rating, Integer> histogram = findEntry(id).getStatistics().getHistogram();
+            histogramTimer.stop(start);
+            
+            return histogram;
+        } catch (ProductManagerException e) {
+            histogramTimer.fail(start);
+            throw e;
         } finally {
             readLock.unlock();
         }
     }
         
+    /**
+     * Returns the total discount that currently applies to the products of
+     * each rating.
+     * <br>
+     * Totals are kept up to date as products are created and reviewed, so
+     * the cost does not depend on the size of the catalogue.
+     *
+     * @param languageTag the locale used to format amounts
+     * @return formatted totals keyed by rating stars, for the ratings that
+     * have at least one product
+     */
     public Map<String, String> getDiscount(String languageTag) {
+        long start = discountTimer.start();
+        ResourceFormatter formatter = ResourceFormatter.getFormatter(languageTag);
+        Map<String, String> result = new LinkedHashMap<>();
+        
+        snapshot.get().getDiscounts().getTotals(PricingEpoch.now())
+                .forEach((rating, total) -> result.put(rating.getStars(),
+                                                       formatter.formatMoney(total)));
+        discountTimer.stop(start);
+        
+        return result;
+    }
+    
+    public Clock getClock() {
+        return PricingEpoch.getClock();
+    }
+    
+    /**
+     * Replaces the clock that decides which discounts apply and what the
+     * current date is, for example to price the catalogue at another time.
+     *
+     * @param clock the new clock
+     */
+    public void setClock(Clock clock) {
+        PricingEpoch.setClock(clock);
+    }
+    
+    /**
+     * Writes the whole catalogue to a single binary catalogue file, which is
+     * opened instead of the data folder at the next start when it is found
+     * at the {@code catalogue.file} location. Saving to that location also
+     * empties the review log.
+     *
+     * @param file the catalogue file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void saveCatalogue(Path file) throws IOException {
+        long start = saveCatalogueTimer.start();
+        
         try {
-            readLock.lock();
+            locks.lockAllRead();
+            CatalogueFile.write(file, entries.values());
             
-            ResourceFormatter formatter =
-                    formatters.getOrDefault(languageTag, formatters.get("en-GB"));
-
-            return products.keySet().stream()
-                    .collect(Collectors.groupingBy(
-                            p -> p.getRating().getStars(),
-                            Collectors.collectingAndThen(
-                                    Collectors.summingDouble(p -> p.getDiscount().doubleValue()), 
-                                    d -> formatter.moneyFormat.format(d))));
+            if (file.equals(catalogueFile)) {
+                truncateLog();
+            }
+            
+            saveCatalogueTimer.stop(start);
+        } catch (IOException e) {
+            saveCatalogueTimer.fail(start);
+            throw e;
         } finally {
-            readLock.unlock();
+            locks.unlockAllRead();
+        }
+    }
+    
+    /**
+     * Writes the whole catalogue as one product file and one reviews file per
+     * product, in the layout read from the data folder. Saving to the data
+     * folder also empties the review log, unless the catalogue is loaded
+     * from a catalogue file.
+     * <br>
+     * Each file is written next to its final name, forced to disk and then
+     * moved into place, and the folder itself is forced before the log is
+     * emptied, so a crash never loses both the saved data and its log
+     * records.
+     *
+     * @param folder the folder to write the files to
+     * @throws IOException if a file cannot be written
+     */
+    public void saveData(Path folder) throws IOException {
+        long start = saveDataTimer.start();
+        
+        try {
+            locks.lockAllRead();
+            Files.createDirectories(folder);
+            
+            for (CatalogueEntry entry : entries.values()) {
+                String id = String.valueOf(entry.getProduct().getId());
+                
+                writeDurably(folder.resolve(MessageFormat.format(
+                                     getSetting("product.data.file"), id)),
+                             List.of(CsvWriter.formatProduct(entry.getProduct())));
+                
+                if (!entry.getReviews().isEmpty()) {
+                    writeDurably(folder.resolve(MessageFormat.format(
+                                         getSetting("reviews.data.file"), id)),
+                                 entry.getReviews().stream()
+                                                 .map(CsvWriter::formatReview)
+                                                 .collect(Collectors.toList()));
+                }
+            }
+            
+            forceFolder(folder);
+            
+            if (folder.equals(dataFolder) && Files.notExists(catalogueFile)) {
+                truncateLog();
+            }
+            
+            saveDataTimer.stop(start);
+        } catch (IOException e) {
+            saveDataTimer.fail(start);
+            throw e;
+        } finally {
+            locks.unlockAllRead();
+        }
+    }
+    
+    private static void writeDurably(Path file, List<String> lines) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".new");
+        StringBuilder text = new StringBuilder();
+        
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+        
+        ByteBuffer content = StandardCharsets.UTF_8.encode(text.toString());
+        
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            
+            channel.force(true);
+        }
+        
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Forces the entries of a folder to disk, so files moved into it survive
+     * a crash. Platforms that cannot open a folder as a channel persist
+     * their entries by other means.
+     */
+    private static void forceFolder(Path folder) throws IOException {
+        FileChannel channel;
+        
+        try {
+            channel = FileChannel.open(folder, StandardOpenOption.READ);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Cannot force folder {0}", folder);
+            return;
+        }
+        
+        try (channel) {
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Empties the review log once the data it records has been saved to the
+     * place the catalogue is loaded from. Callers hold every stripe of the
+     * lock, so no record can be appended meanwhile.
+     */
+    private void truncateLog() throws IOException {
+        if (reviewLog != null) {
+            reviewLog.truncate();
         }
     }
     
     private void dumpData() {
+        long start = dumpTimer.start();
+        
         try {
             if (Files.notExists(tempFolder)) {
                 Files.createDirectories(tempFolder);
             }
             
-            Path tempFile = tempFolder.resolve(MessageFormat.format(config.getString("temp.file"), Instant.now()));
+            Path tempFile = tempFolder.resolve(MessageFormat.format(getSetting("temp.file"),
+                                                                    snapshotTime.format(Instant.now())));
             
-            try (ObjectOutputStream out = new ObjectOutputStream(
-                    Files.newOutputStream(tempFile, StandardOpenOption.CREATE))) {
-                out.writeObject(products);
-                products = new HashMap<>();
+            try {
+                locks.lockAllWrite();
+                SnapshotFile.write(tempFile, entries.values());
+                replaceData(Map.of(), Map.of());
+            } finally {
+                locks.unlockAllWrite();
             }
+            
+            dumpTimer.stop(start);
         } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error dumping data " + e.getMessage(), e);
+            dumpTimer.fail(start);
+            logger.log(Level.SEVERE, e, () -> "Error dumping data " + e.getMessage());
         }
     }
     
-    @SuppressWarnings("unchecked")
+    /**
+     * Restores the most recent snapshot, found by its timestamped name, and
+     * deletes it once restored. A snapshot that fails its checks is left in
+     * place and the current data is kept.
+     */
     private void restoreData() {
+        long start = restoreTimer.start();
+        
         try {
-            Path tempFile = Files.list(tempFolder)
-                                 .filter(path -> path.getFileName().toString().endsWith("tmp"))
-                                 .findFirst()
-                                 .orElseThrow();
-            
-            try (ObjectInputStream in = new ObjectInputStream(
-                    Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE))) {
-                products = (HashMap) in.readObject();
+            Optional<Path> latest;
+            
+            try (Stream<Path> list = Files.list(tempFolder)) {
+                latest = list.filter(path -> path.getFileName().toString().endsWith(".tmp"))
+                             .max(Comparator.naturalOrder());
             }
-        } catch (IOException | ClassNotFoundException e) {
-            logger.log(Level.SEVERE, "Error restoring data " + e.getMessage(), e);
+            
+            if (latest.isEmpty()) {
+                logger.log(Level.WARNING, "No data to restore in {0}", tempFolder);
+                return;
+            }
+            
+            Map<Product, List<Review>> data = SnapshotFile.read(latest.get());
+            
+            try {
+                locks.lockAllWrite();
+                replaceData(data, Map.of());
+            } finally {
+                locks.unlockAllWrite();
+            }
+            
+            Files.delete(latest.get());
+            restoreTimer.stop(start);
+        } catch (IOException e) {
+            restoreTimer.fail(start);
+            logger.log(Level.SEVERE, e, () -> "Error restoring data " + e.getMessage());
         }
     }
     
     private void loadAllData() {
+        long start = System.nanoTime();
+        
         try {
-            products = Files.list(dataFolder)
-                            .filter(file -> file.getFileName().toString().startsWith("product"))
-                            .map(file -> loadProduct(file))
-                            .filter(product -> product != null)
-                            .collect(Collectors.toMap(product -> product,
-                                                      product -> loadReviews(product)));
+            if (Files.exists(catalogueFile)) {
+                CatalogueFile catalogue = CatalogueFile.read(catalogueFile);
+                
+                try {
+                    locks.lockAllWrite();
+                    replaceData(catalogue.getProducts(), catalogue.getStatistics());
+                } finally {
+                    locks.unlockAllWrite();
+                }
+                
+                logger.log(Level.INFO, "Opened {0} products from {1} in {2} ms",
+                           new Object[] {catalogue.getProducts().size(), catalogueFile,
+                                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+            } else {
+                List<Path> files;
+                
+                Predicate<String> productFile = fileNamePattern(getSetting("product.data.file"));
+                
+                try (Stream<Path> list = Files.list(dataFolder)) {
+                    files = list.filter(file -> productFile.test(file.getFileName().toString()))
+                                .collect(Collectors.toList());
+                }
+                
+                Map<Product, List<Review>> data = (loadThreads == 1)
+                        ? loadProducts(files)
+                        : loadProductsInParallel(files);
+                
+                try {
+                    locks.lockAllWrite();
+                    replaceData(data, Map.of());
+                } finally {
+                    locks.unlockAllWrite();
+                }
+                
+                logger.log(Level.INFO, "Loaded {0} products in {1} ms",
+                           new Object[] {data.size(),
+                                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+            }
+            
+            loadTimer.record(System.nanoTime() - start);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error loading data {0}", e.getMessage());
+        }
+        
+        replayLog();
+    }
+    
+    /**
+     * Applies the products and reviews recorded in the review log since the
+     * data was last saved, then keeps the log open to record new ones. If
+     * the log cannot be opened, changes are kept in memory only.
+     */
+    private void replayLog() {
+        AtomicInteger replayed = new AtomicInteger();
+        
+        try {
+            locks.lockAllWrite();
+            
+            reviewLog = ReviewLog.open(logFile, new ReviewLog.Replay() {
+                @Override
+                public void product(Product product) {
+                    addProduct(product);
+                    replayed.incrementAndGet();
+                }
+                
+                @Override
+                public void review(int id, Review review) {
+                    CatalogueEntry entry = entries.get(id);
+                    
+                    if (entry != null) {
+                        reviewProduct(entry, review);
+                        replayed.incrementAndGet();
+                    }
+                }
+            });
+            
+            if (replayed.get() > 0) {
+                logger.log(Level.INFO, "Replayed {0} records from {1}",
+                           new Object[] {replayed.get(), logFile});
+            }
         } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error loading data " + e.getMessage());
+            logger.log(Level.SEVERE, e, () -> "Error opening review log " + e.getMessage());
+        } finally {
+            locks.unlockAllWrite();
+        }
+    }
+    
+    /**
+     * Builds a predicate that matches the file names a {@code MessageFormat}
+     * pattern such as {@code product{0}.csv} produces for any product id, so
+     * that backups and temporary files in the same folder are not loaded.
+     */
+    private static Predicate<String> fileNamePattern(String pattern) {
+        int index = pattern.indexOf("{0}");
+        
+        if (index < 0) {
+            throw new IllegalArgumentException("File pattern " + pattern + " has no {0}");
+        }
+        
+        return Pattern.compile(Pattern.quote(pattern.substring(0, index)) + "-?\\d+"
+                               + Pattern.quote(pattern.substring(index + 3)))
+                      .asMatchPredicate();
+    }
+    
+    /**
+     * Loads the products of some files with their reviews. When two files
+     * hold the same product id, such as {@code product101.csv} and
+     * {@code product0101.csv}, the second one loaded is logged and skipped.
+     */
+    private Map<Product, List<Review>> loadProducts(List<Path> files) {
+        Map<Integer, Product> products = new HashMap<>(files.size() * 4 / 3 + 1);
+        
+        files.stream()
+             .map(file -> loadProduct(file))
+             .filter(product -> product != null)
+             .forEach(product -> addLoadedProduct(products, product));
+        
+        return products.values().stream()
+                       .collect(Collectors.toMap(product -> product,
+                                                 product -> loadReviews(product)));
+    }
+    
+    private static boolean addLoadedProduct(Map<Integer, Product> products, Product product) {
+        Product other = products.putIfAbsent(product.getId(), product);
+        
+        if (other != null) {
+            logger.log(Level.WARNING, "Skipped duplicate product id {0}: {1} and {2}",
+                       new Object[] {product.getId(), other.getName(), product.getName()});
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Loads the product files in chunks on a pool of {@code data.load.threads}
+     * threads, which also bounds the number of files open at the same time.
+     * Produces the same products and reviews as {@link #loadProducts(List)},
+     * and skips a product id held by two files the same way, whether they are
+     * in the same chunk or not.
+     */
+    private Map<Product, List<Review>> loadProductsInParallel(List<Path> files)
+            throws IOException {
+        int threads = (loadThreads > 0)
+                ? loadThreads
+                : Runtime.getRuntime().availableProcessors();
+        int chunkSize = Math.max(1, Math.min(LOAD_CHUNK_SIZE, files.size() / threads));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Map<Product, List<Review>>> loader =
+                new ExecutorCompletionService<>(executor);
+        
+        try {
+            int chunks = 0;
+            
+            for (int from = 0; from < files.size(); from += chunkSize) {
+                List<Path> chunk = files.subList(from, Math.min(from + chunkSize, files.size()));
+                loader.submit(() -> loadProducts(chunk));
+                chunks++;
+            }
+            
+            Map<Product, List<Review>> data = new HashMap<>(files.size() * 4 / 3 + 1);
+            Map<Integer, Product> products = new HashMap<>(files.size() * 4 / 3 + 1);
+            int progressStep = Math.max(1, chunks / 10);
+            
+            for (int done = 1; done <= chunks; done++) {
+                loader.take().get().forEach((product, reviews) -> {
+                    if (addLoadedProduct(products, product)) {
+                        data.put(product, reviews);
+                    }
+                });
+                
+                if (done % progressStep == 0 || done == chunks) {
+                    logger.log(Level.INFO, "Loaded {0} of {1} product files",
+                               new Object[] {data.size(), files.size()});
+                }
+            }
+            
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading data interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            
+            throw new IOException("Error loading data " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
     }
     
+    /**
+     * Replaces the whole catalogue, keeping the indexes and the review
+     * statistics consistent with the products, and publishes it in a new
+     * snapshot. Statistics that are not already known are computed from the
+     * reviews. Callers must hold every stripe of the write lock.
+     * <br>
+     * The new catalogue gets indexes of its own, so snapshots taken before
+     * keep answering queries from the indexes they were published with.
+     */
+    private void replaceData(Map<Product, List<Review>> data,
+                             Map<Integer, ReviewStatistics> knownStatistics) {
+        ProductIndexes indexes = new ProductIndexes();
+        
+        entries.clear();
+        reportCache.clear();
+        lineCache.clear();
+        slots.set(0);
+        
+        data.forEach((product, reviews) -> {
+            ReviewStatistics stats = knownStatistics.get(product.getId());
+            CatalogueEntry entry = new CatalogueEntry(
+                    slots.getAndIncrement(), product, reviews,
+                    (stats != null) ? stats : new ReviewStatistics(reviews));
+            
+            entries.put(product.getId(), entry);
+            indexes.add(product, entry.getSlot());
+        });
+        
+        snapshot.set(snapshot.get().replace(indexes, entries.values()));
+    }
+    
     private Product loadProduct(Path file) {
         Product product = null;
         
-        try {
-            product = parseProduct(Files.lines(dataFolder.resolve(file), Charset.forName("UTF-8"))
-                                        .findFirst()
-                                        .orElseThrow());
+        try (BufferedReader in = Files.newBufferedReader(dataFolder.resolve(file),
+                                                         StandardCharsets.UTF_8)) {
+            String text = in.readLine();
+            
+            if (text != null) {
+                product = parseProduct(text);
+            }
         } catch (IOException e) {
-            logger.log(Level.WARNING, "Error loading products " + e.getMessage());
+            logger.log(Level.WARNING, "Error loading products {0}", e.getMessage());
         }
         
         return product;
     }
     
     private List<Review> loadReviews(Product product) {
-        List<Review> reviews = null;
+        List<Review> reviews = new ReviewList();
         
         Path file = dataFolder.resolve(MessageFormat.format(
-                config.getString("reviews.data.file"), 
-                product.getId()));
+                getSetting("reviews.data.file"), 
+                String.valueOf(product.getId())));
         
-        if (Files.notExists(file)) {
-            reviews = new ArrayList<>();
-        } else {
-            try {
-                reviews = Files.lines(file, Charset.forName("UTF-8"))
-                               .map(text -> parseReview(text))
+        if (Files.exists(file)) {
+            try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                reviews = lines.map(text -> parseReview(text))
                                .filter(review -> review != null)
-                               .collect(Collectors.toList());
+                               .collect(Collectors.toCollection(ReviewList::new));
             } catch (IOException e) {
-                logger.log(Level.WARNING, "Error loading reviews " + e.getMessage());
+                logger.log(Level.WARNING, "Error loading reviews {0}", e.getMessage());
             }
         }
         
         return reviews;
     }
     
-    private static class ResourceFormatter {
-        private final Locale locale;
-        private final ResourceBundle resources;
-        private final DateTimeFormatter dateFormat;
-        private final NumberFormat moneyFormat;
-        
-        private ResourceFormatter(Locale locale) {
-            this.locale = locale;
-            resources = ResourceBundle.getBundle("labs.pm.data.resources", locale);
-            dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT)
-                                          .localizedBy(locale);
-            moneyFormat = NumberFormat.getCurrencyInstance(locale);
-        }
-        
-        private String formatProduct(Product product) {
-            return MessageFormat.format(resources.getString("product"),
-                                        product.getName(),
-                                        moneyFormat.format(product.getPrice()),
-                                        product.getRating().getStars(),
-                                        dateFormat.format(product.getBestBefore()));
-        }
-        
-        private String formatReview(Review review) {
-            return MessageFormat.format(resources.getString("review"),
-                                        review.getRating().getStars(),
-                                        review.getComments());
-        }
-        
-        private String getText(String key) {
-            return resources.getString(key);
-        }
+    /**
+     * Creates the instance once {@code ProductManager} is fully initialised,
+     * so the threads that load the data folder can use its static members.
+     */
+    private static class InstanceHolder {
+        private static final ProductManager pm = new ProductManager();
     }
 }
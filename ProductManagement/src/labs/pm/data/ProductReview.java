@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+/**
+ * {@code ProductReview} class represents a review submitted for a product,
+ * as passed to {@link ProductManager#reviewProducts(java.util.Collection)}.
+ *
+ * @author apellet
+ */
+public final class ProductReview {
+    private final int productId;
+    private final Rating rating;
+    private final String comments;
+    
+    public ProductReview(int productId, Rating rating, String comments) {
+        this.productId = productId;
+        this.rating = rating;
+        this.comments = comments;
+    }
+    
+    public int getProductId() {
+        return productId;
+    }
+    
+    public Rating getRating() {
+        return rating;
+    }
+    
+    public String getComments() {
+        return comments;
+    }
+    
+    @Override
+    public String toString() {
+        return "ProductReview{productId=" + productId + ", rating=" + rating
+                + ", comments=" + comments + "}";
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import labs.pm.metrics.Metrics;
+
+/**
+ * {@code RenderCache} class keeps the most recently used output rendered for
+ * a product in a given language, such as its report or its product line.
+ * <br>
+ * Output is looked up with the state it was rendered from: the product, the
+ * number of its reviews and the date it was priced on. Products are immutable
+ * and reviews are only ever added, so cached output whose state does not
+ * match is stale and is rendered again. Writers of a product also invalidate
+ * its output, so stale output does not take the place of live output until
+ * it is evicted.
+ * <br>
+ * The cache holds at most a fixed number of outputs and evicts the least
+ * recently used one. Its hits, misses, evictions and size are exposed as
+ * gauges of the manager metrics.
+ *
+ * @param <V> the type of the rendered output
+ * @author apellet
+ */
+final class RenderCache<V> {
+    private final int capacity;
+    private final Map<Key, Rendered<V>> rendered;
+    private final Lock lock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    /**
+     * Creates a cache and registers its gauges as {@code <name>.hits},
+     * {@code <name>.misses}, {@code <name>.evictions} and
+     * {@code <name>.size}
+     *
+     * @param capacity the maximum number of cached outputs, 0 disables the
+     * cache
+     * @param name the prefix of the gauges
+     * @param metrics the metrics to register the gauges with
+     */
+    RenderCache(int capacity, String name, Metrics metrics) {
+        this.capacity = capacity;
+        rendered = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Rendered<V>> eldest) {
+                if (size() > RenderCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                
+                return false;
+            }
+        };
+        
+        metrics.gauge(name + ".hits", hits::sum);
+        metrics.gauge(name + ".misses", misses::sum);
+        metrics.gauge(name + ".evictions", evictions::sum);
+        metrics.gauge(name + ".size", this::size);
+    }
+    
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+    
+    /**
+     * Get the output rendered from the current state of a product
+     *
+     * @param product the current product
+     * @param reviews the number of reviews of the product shown by the
+     * output, 0 for output that does not show reviews
+     * @param languageTag the language of the output
+     * @param date the date the output is priced on
+     * @return the cached output, or {@code null} if it has to be rendered
+     */
+    V get(Product product, int reviews, String languageTag, LocalDate date) {
+        if (capacity == 0) {
+            return null;
+        }
+        
+        Rendered<V> output;
+        
+        try {
+            lock.lock();
+            output = rendered.get(new Key(product.getId(), languageTag));
+        } finally {
+            lock.unlock();
+        }
+        
+        if (output != null && output.product == product && output.reviews == reviews
+                && output.date.equals(date)) {
+            hits.increment();
+            return output.value;
+        }
+        
+        misses.increment();
+        return null;
+    }
+    
+    void put(Product product, int reviews, String languageTag, LocalDate date, V value) {
+        if (capacity == 0) {
+            return;
+        }
+        
+        Rendered<V> output = new Rendered<>(product, reviews, date, value);
+        
+        try {
+            lock.lock();
+            rendered.put(new Key(product.getId(), languageTag), output);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Drops the output of a product in every supported language
+     *
+     * @param id the product id
+     */
+    void invalidate(int id) {
+        if (capacity == 0) {
+            return;
+        }
+        
+        try {
+            lock.lock();
+            
+            for (String languageTag : ResourceFormatter.getSupportedLocales()) {
+                rendered.remove(new Key(id, languageTag));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    void clear() {
+        try {
+            lock.lock();
+            rendered.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private long size() {
+        try {
+            lock.lock();
+            return rendered.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static final class Key {
+        private final int id;
+        private final String languageTag;
+        
+        private Key(int id, String languageTag) {
+            this.id = id;
+            this.languageTag = languageTag;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * id + languageTag.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            
+            Key other = (Key) obj;
+            
+            return id == other.id && languageTag.equals(other.languageTag);
+        }
+    }
+    
+    private static final class Rendered<V> {
+        private final Product product;
+        private final int reviews;
+        private final LocalDate date;
+        private final V value;
+        
+        private Rendered(Product product, int reviews, LocalDate date, V value) {
+            this.product = product;
+            this.reviews = reviews;
+            this.date = date;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * {@code ReportWriter} class writes product reports to files through a
+ * {@link FileChannel}, replacing any previous content of the file.
+ * <br>
+ * A previous report is overwritten in place and the file is then truncated
+ * to the length of the new report, which drops the tail of a longer previous
+ * report. Truncating the file before writing would instead release its blocks
+ * only to allocate them again, which makes rewriting a report several times
+ * slower.
+ * <br>
+ * Report lines are encoded to UTF-8 straight into direct buffers, which are
+ * then written with a single gathering write, so a report is not copied
+ * through a chain of writers and streams. Each writing thread borrows an
+ * encoder and its buffers from a small pool and gives them back once the
+ * report is written.
+ *
+ * @author apellet
+ */
+final class ReportWriter {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final CharBuffer NEW_LINE = CharBuffer.wrap("\n");
+    
+    private final BlockingQueue<Encoding> pool;
+    
+    /**
+     * @param poolSize the number of encoders kept for reuse, which is the
+     * number of reports usually written at the same time
+     */
+    ReportWriter(int poolSize) {
+        pool = new ArrayBlockingQueue<>(poolSize);
+    }
+    
+    /**
+     * Writes a report, one line at a time
+     *
+     * @param file the report file
+     * @param lines the lines of the report, without line separators
+     * @param keep whether to return a copy of the content, to write it again
+     * later
+     * @return a read-only direct buffer holding the content written to the
+     * file, or {@code null} if it is not kept
+     * @throws IOException if the file cannot be written
+     */
+    ByteBuffer write(Path file, List<String> lines, boolean keep) throws IOException {
+        Encoding encoding = pool.poll();
+        
+        if (encoding == null) {
+            encoding = new Encoding();
+        }
+        
+        try {
+            for (String line : lines) {
+                encoding.encode(CharBuffer.wrap(line));
+                encoding.encode(NEW_LINE.duplicate());
+            }
+            
+            ByteBuffer[] buffers = encoding.flip();
+            ByteBuffer content = null;
+            
+            if (keep) {
+                content = ByteBuffer.allocateDirect(encoding.size());
+                
+                for (ByteBuffer buffer : buffers) {
+                    content.put(buffer.duplicate());
+                }
+                
+                content = content.flip().asReadOnlyBuffer();
+            }
+            
+            write(file, buffers);
+            
+            return content;
+        } finally {
+            encoding.clear();
+            pool.offer(encoding);
+        }
+    }
+    
+    /**
+     * Writes a report that is already encoded, as returned by
+     * {@link #write(Path, List, boolean)}
+     *
+     * @param file the report file
+     * @param content the content of the report, which is left unchanged
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path file, ByteBuffer content) throws IOException {
+        write(file, new ByteBuffer[]{content.duplicate()});
+    }
+    
+    private static void write(Path file, ByteBuffer[] buffers) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE)) {
+            long remaining = 0;
+            
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            
+            channel.truncate(channel.position());
+        }
+    }
+    
+    /**
+     * A UTF-8 encoder and the direct buffers it encodes a report into. The
+     * first {@value #MAX_POOLED_BUFFERS} buffers are kept along with the
+     * encoder, larger reports allocate more buffers for one use only.
+     */
+    private static final class Encoding {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private int current;
+        
+        private Encoding() {
+            buffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        
+        void encode(CharBuffer text) throws CharacterCodingException {
+            encoder.reset();
+            
+            for (CoderResult result = encoder.encode(text, buffers.get(current), true);
+                    !result.isUnderflow();
+                    result = encoder.encode(text, buffers.get(current), true)) {
+                next(result);
+            }
+            
+            for (CoderResult result = encoder.flush(buffers.get(current));
+                    !result.isUnderflow();
+                    result = encoder.flush(buffers.get(current))) {
+                next(result);
+            }
+        }
+        
+        ByteBuffer[] flip() {
+            ByteBuffer[] used = new ByteBuffer[current + 1];
+            
+            for (int i = 0; i <= current; i++) {
+                used[i] = buffers.get(i).flip();
+            }
+            
+            return used;
+        }
+        
+        int size() {
+            int size = 0;
+            
+            for (int i = 0; i <= current; i++) {
+                size += buffers.get(i).remaining();
+            }
+            
+            return size;
+        }
+        
+        void clear() {
+            while (buffers.size() > MAX_POOLED_BUFFERS) {
+                buffers.remove(buffers.size() - 1);
+            }
+            
+            buffers.forEach(ByteBuffer::clear);
+            current = 0;
+        }
+        
+        private void next(CoderResult result) throws CharacterCodingException {
+            if (!result.isOverflow()) {
+                result.throwException();
+            }
+            
+            current++;
+            
+            if (current == buffers.size()) {
+                buffers.add((current < MAX_POOLED_BUFFERS)
+                        ? ByteBuffer.allocateDirect(BUFFER_SIZE)
+                        : ByteBuffer.allocate(BUFFER_SIZE));
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code ResourceFormatter} class formats products, reviews and money amounts
+ * for one of the supported locales.
+ * <br>
+ * The message patterns of the resource bundle are compiled once per locale,
+ * and formatted dates are cached, so formatting a line does not parse any
+ * pattern. Formatters are safe to share between threads.
+ *
+ * @author apellet
+ */
+public final class ResourceFormatter {
+    private static final String DEFAULT_LANGUAGE_TAG = "en-GB";
+    private static final int MAX_CACHED_DATES = 4096;
+    
+    private static final Map<String, ResourceFormatter> formatters =
+            Map.of("en-GB", new ResourceFormatter(Locale.UK),
+                   "en-US", new ResourceFormatter(Locale.US),
+                   "fr-FR", new ResourceFormatter(Locale.FRANCE),
+                   "en-CA", new ResourceFormatter(Locale.CANADA));
+    
+    public static Set<String> getSupportedLocales() {
+        return formatters.keySet();
+    }
+    
+    /**
+     * Get the formatter of a supported locale
+     *
+     * @param languageTag the language tag of the locale
+     * @return the formatter of the locale, or of the {@code en-GB} locale if
+     * the locale is not supported
+     */
+    public static ResourceFormatter getFormatter(String languageTag) {
+        return formatters.getOrDefault(languageTag, formatters.get(DEFAULT_LANGUAGE_TAG));
+    }
+    
+    private final String languageTag;
+    private final ResourceBundle resources;
+    private final DateTimeFormatter dateFormat;
+    private final CurrencyFormatter moneyFormat;
+    private final MessageTemplate productFormat;
+    private final MessageTemplate reviewFormat;
+    private final Map<LocalDate, String> dates = new ConcurrentHashMap<>();
+    
+    private ResourceFormatter(Locale locale) {
+        languageTag = locale.toLanguageTag();
+        resources = ResourceBundle.getBundle("labs.pm.data.resources", locale);
+        dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT)
+                                      .localizedBy(locale);
+        moneyFormat = new CurrencyFormatter(locale);
+        productFormat = new MessageTemplate(resources.getString("product"));
+        reviewFormat = new MessageTemplate(resources.getString("review"));
+    }
+    
+    /**
+     * Get the language tag of the locale of this formatter, which is the one
+     * requested from {@link #getFormatter(String)} if it is supported
+     *
+     * @return the language tag
+     */
+    public String getLanguageTag() {
+        return languageTag;
+    }
+    
+    public String formatProduct(Product product) {
+        return formatProduct(product, PricingEpoch.now());
+    }
+    
+    public String formatProduct(Product product, PricingEpoch epoch) {
+        return productFormat.format(product.getName(),
+                                    moneyFormat.format(product.getPrice()),
+                                    product.getRating().getStars(),
+                                    formatDate(product.getBestBefore(epoch)));
+    }
+    
+    public String formatReview(Review review) {
+        return reviewFormat.format(review.getRating().getStars(),
+                                   review.getComments());
+    }
+    
+    public String formatMoney(BigDecimal amount) {
+        return moneyFormat.format(amount);
+    }
+    
+    public String getText(String key) {
+        return resources.getString(key);
+    }
+    
+    private String formatDate(LocalDate date) {
+        String text = dates.get(date);
+        
+        if (text == null) {
+            text = dateFormat.format(date);
+            
+            if (dates.size() < MAX_CACHED_DATES) {
+                dates.put(date, text);
+            }
+        }
+        
+        return text;
+    }
+}
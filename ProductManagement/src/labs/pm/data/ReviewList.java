@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code ReviewList} class stores the reviews of a product in columns: one
+ * byte per rating and one reference per comment.
+ * <br>
+ * {@link Review} objects are created only when an element is read, so the
+ * catalogue does not keep one object per review. Identical comments are
+ * shared between all products, up to a limited number of distinct comments.
+ * Like an {@code ArrayList}, the list is not thread-safe and callers guard it
+ * with the lock of its product.
+ *
+ * @author apellet
+ */
+final class ReviewList extends AbstractList<Review> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int MAX_SHARED_COMMENTS = 1 << 16;
+    private static final Rating[] RATINGS = Rating.values();
+    private static final byte[] NO_RATINGS = {};
+    private static final String[] NO_COMMENTS = {};
+    
+    private static final Map<String, String> comments = new ConcurrentHashMap<>();
+    
+    private byte[] ratingColumn = NO_RATINGS;
+    private String[] commentColumn = NO_COMMENTS;
+    private int size;
+    
+    ReviewList() {
+    }
+    
+    ReviewList(int capacity) {
+        if (capacity > 0) {
+            ratingColumn = new byte[capacity];
+            commentColumn = new String[capacity];
+        }
+    }
+    
+    ReviewList(Collection<Review> reviews) {
+        this(reviews.size());
+        addAll(reviews);
+    }
+    
+    @Override
+    public Review get(int index) {
+        Objects.checkIndex(index, size);
+        
+        return new Review(RATINGS[ratingColumn[index]], commentColumn[index]);
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean add(Review review) {
+        add(review.getRating(), review.getComments());
+        
+        return true;
+    }
+    
+    void add(Rating rating, String comment) {
+        if (size == ratingColumn.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+            ratingColumn = Arrays.copyOf(ratingColumn, capacity);
+            commentColumn = Arrays.copyOf(commentColumn, capacity);
+        }
+        
+        ratingColumn[size] = (byte) rating.ordinal();
+        commentColumn[size] = share(comment);
+        size++;
+        modCount++;
+    }
+    
+    @Override
+    public Review set(int index, Review review) {
+        Review previous = get(index);
+        
+        ratingColumn[index] = (byte) review.getRating().ordinal();
+        commentColumn[index] = share(review.getComments());
+        
+        return previous;
+    }
+    
+    @Override
+    public void add(int index, Review review) {
+        if (index == size) {
+            add(review);
+            return;
+        }
+        
+        Objects.checkIndex(index, size);
+        add(review);
+        
+        System.arraycopy(ratingColumn, index, ratingColumn, index + 1, size - index - 1);
+        System.arraycopy(commentColumn, index, commentColumn, index + 1, size - index - 1);
+        ratingColumn[index] = (byte) review.getRating().ordinal();
+        commentColumn[index] = share(review.getComments());
+    }
+    
+    @Override
+    public Review remove(int index) {
+        Review previous = get(index);
+        
+        System.arraycopy(ratingColumn, index + 1, ratingColumn, index, size - index - 1);
+        System.arraycopy(commentColumn, index + 1, commentColumn, index, size - index - 1);
+        commentColumn[--size] = null;
+        modCount++;
+        
+        return previous;
+    }
+    
+    /**
+     * Returns the shared copy of a comment, so that the many reviews with
+     * the same text keep a single string
+     */
+    private static String share(String comment) {
+        if (comment == null) {
+            return null;
+        }
+        
+        String shared = comments.get(comment);
+        
+        if (shared != null) {
+            return shared;
+        }
+        
+        if (comments.size() < MAX_SHARED_COMMENTS) {
+            shared = comments.putIfAbsent(comment, comment);
+        }
+        
+        return (shared != null) ? shared : comment;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * {@code ReviewLog} class is an append-only write-ahead log of the products
+ * created and the reviews added since the data was last saved.
+ * <br>
+ * Each record holds its length, a CRC32 checksum and either a product line or
+ * a product id and a review line, in the format of the data files.
+ * <br>
+ * Records are appended to a queue and written by a single writer thread. The
+ * writer takes every record queued while it was busy and makes the whole
+ * batch durable with one {@code force} call, so concurrent writers share the
+ * cost of an fsync (group commit).
+ * <br>
+ * When a batch cannot be written, its records are cut from the file again, so
+ * records appended later do not follow a torn record that would end the
+ * replay before them. If the file cannot be cut either, the log refuses any
+ * further record.
+ *
+ * @author apellet
+ */
+final class ReviewLog {
+    private static final byte PRODUCT = 'P';
+    private static final byte REVIEW = 'R';
+    private static final int RECORD_HEADER_SIZE = 8;
+    
+    private final FileChannel channel;
+    private final Lock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private List<ByteBuffer> records = new ArrayList<>();
+    private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+    private boolean writing;
+    private IOException failure;
+    
+    /**
+     * Receives the records of the log as it is replayed.
+     */
+    interface Replay {
+        void product(Product product);
+        void review(int id, Review review);
+    }
+    
+    private ReviewLog(FileChannel channel) {
+        this.channel = channel;
+        
+        Thread writer = new Thread(this::writeBatches, "review-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Replays the records of a log file, then opens it for appending. A
+     * record that was only partly written when the application stopped ends
+     * the replay and is cut from the file.
+     *
+     * @param file the log file, created if it does not exist
+     * @param replay receives the records found in the file
+     * @return the log, ready to append to
+     * @throws IOException if the log cannot be read or opened
+     */
+    static ReviewLog open(Path file, Replay replay) throws IOException {
+        long valid = 0;
+        
+        if (Files.exists(file)) {
+            long size = Files.size(file);
+            
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file)))) {
+                CRC32 checksum = new CRC32();
+                
+                while (valid + RECORD_HEADER_SIZE <= size) {
+                    int length = in.readInt();
+                    long expected = in.readInt() & 0xFFFFFFFFL;
+                    
+                    if (length <= 0 || valid + RECORD_HEADER_SIZE + length > size) {
+                        break;
+                    }
+                    
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    
+                    checksum.reset();
+                    checksum.update(payload);
+                    
+                    if (checksum.getValue() != expected) {
+                        break;
+                    }
+                    
+                    apply(payload, replay);
+                    valid += RECORD_HEADER_SIZE + length;
+                }
+            }
+        }
+        
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                               StandardOpenOption.WRITE);
+        channel.truncate(valid);
+        channel.position(valid);
+        
+        return new ReviewLog(channel);
+    }
+    
+    CompletableFuture<Void> appendProduct(Product product) {
+        return append(List.of(productPayload(product)));
+    }
+    
+    /**
+     * Appends new products as consecutive records
+     *
+     * @param products the products
+     * @return a future completed once every record is durable
+     */
+    CompletableFuture<Void> appendProducts(List<Product> products) {
+        List<ByteBuffer> payloads = new ArrayList<>(products.size());
+        
+        for (Product product : products) {
+            payloads.add(productPayload(product));
+        }
+        
+        return append(payloads);
+    }
+    
+    CompletableFuture<Void> appendReview(int id, Review review) {
+        return append(List.of(reviewPayload(id, review)));
+    }
+    
+    /**
+     * Appends the reviews of a product as consecutive records
+     *
+     * @param id the product id
+     * @param reviews the reviews
+     * @return a future completed once every record is durable
+     */
+    CompletableFuture<Void> appendReviews(int id, List<Review> reviews) {
+        List<ByteBuffer> payloads = new ArrayList<>(reviews.size());
+        
+        for (Review review : reviews) {
+            payloads.add(reviewPayload(id, review));
+        }
+        
+        return append(payloads);
+    }
+    
+    private static ByteBuffer productPayload(Product product) {
+        byte[] line = CsvWriter.formatProduct(product).getBytes(StandardCharsets.UTF_8);
+        
+        return ByteBuffer.allocate(1 + line.length)
+                         .put(PRODUCT)
+                         .put(line);
+    }
+    
+    private static ByteBuffer reviewPayload(int id, Review review) {
+        byte[] line = CsvWriter.formatReview(review).getBytes(StandardCharsets.UTF_8);
+        
+        return ByteBuffer.allocate(1 + Integer.BYTES + line.length)
+                         .put(REVIEW)
+                         .putInt(id)
+                         .put(line);
+    }
+    
+    /**
+     * Empties the log once every queued record has been written. Callers make
+     * sure nothing is appended meanwhile, after saving the data the log
+     * records are now part of. A log that refused records accepts them
+     * again once it is empty.
+     *
+     * @throws IOException if the log cannot be truncated
+     */
+    void truncate() throws IOException {
+        try {
+            lock.lock();
+            
+            while (writing || !records.isEmpty()) {
+                drained.awaitUninterruptibly();
+            }
+            
+            channel.truncate(0);
+            channel.force(true);
+            failure = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private CompletableFuture<Void> append(List<ByteBuffer> payloads) {
+        List<ByteBuffer> framed = new ArrayList<>(payloads.size());
+        CRC32 checksum = new CRC32();
+        
+        for (ByteBuffer payload : payloads) {
+            payload.flip();
+            checksum.reset();
+            checksum.update(payload.duplicate());
+            
+            framed.add(ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining())
+                                 .putInt(payload.remaining())
+                                 .putInt((int) checksum.getValue())
+                                 .put(payload)
+                                 .flip());
+        }
+        
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        
+        try {
+            lock.lock();
+            
+            if (failure != null) {
+                written.completeExceptionally(failure);
+                return written;
+            }
+            
+            records.addAll(framed);
+            waiters.add(written);
+            queued.signal();
+        } finally {
+            lock.unlock();
+        }
+        
+        return written;
+    }
+    
+    private void writeBatches() {
+        while (true) {
+            List<ByteBuffer> batch;
+            List<CompletableFuture<Void>> batchWaiters;
+            
+            try {
+                lock.lock();
+                writing = false;
+                drained.signalAll();
+                
+                while (records.isEmpty()) {
+                    queued.awaitUninterruptibly();
+                }
+                
+                batch = records;
+                batchWaiters = waiters;
+                records = new ArrayList<>();
+                waiters = new ArrayList<>();
+                writing = true;
+            } finally {
+                lock.unlock();
+            }
+            
+            long committed = -1;
+            
+            try {
+                committed = channel.position();
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                
+                channel.force(false);
+                batchWaiters.forEach(waiter -> waiter.complete(null));
+            } catch (IOException e) {
+                rollback(committed, e);
+                batchWaiters.forEach(waiter -> waiter.completeExceptionally(e));
+            }
+        }
+    }
+    
+    /**
+     * Cuts a batch that failed from the file, back to the end of the last
+     * durable batch, or stops accepting records if that fails as well.
+     */
+    private void rollback(long committed, IOException cause) {
+        try {
+            if (committed < 0) {
+                throw cause;
+            }
+            
+            channel.truncate(committed);
+            channel.position(committed);
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                lock.lock();
+                failure = new IOException("Review log is unusable after an error: "
+                        + cause.getMessage(), cause);
+                waiters.forEach(waiter -> waiter.completeExceptionally(failure));
+                waiters.clear();
+                records.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    private static void apply(byte[] payload, Replay replay) throws IOException {
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        
+        try {
+            switch (record.get()) {
+                case PRODUCT:
+                    replay.product(CsvParser.parseProduct(
+                            StandardCharsets.UTF_8.decode(record)));
+                    break;
+                case REVIEW:
+                    int id = record.getInt();
+                    replay.review(id, CsvParser.parseReview(
+                            StandardCharsets.UTF_8.decode(record)));
+                    break;
+                default:
+                    throw new IOException("Unknown log record type");
+            }
+        } catch (ParseException | RuntimeException e) {
+            throw new IOException("Invalid log record " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@code ReviewStatistics} class keeps the running aggregates of the reviews
+ * of a single product: review count, sum of the review ratings and the number
+ * of reviews per {@link Rating}.
+ * <br>
+ * Aggregates are updated in constant time as reviews are added, so the
+ * average rating never needs to be recomputed from the whole review list.
+ *
+ * @author apellet
+ */
+class ReviewStatistics {
+    private static final Rating[] RATINGS = Rating.values();
+    
+    private final int[] histogram = new int[RATINGS.length];
+    private int count;
+    private long sum;
+    
+    ReviewStatistics() {
+    }
+    
+    ReviewStatistics(Collection<Review> reviews) {
+        reviews.forEach(review -> add(review.getRating()));
+    }
+    
+    ReviewStatistics(int[] histogram) {
+        for (int i = 0; i < RATINGS.length; i++) {
+            this.histogram[i] = histogram[i];
+            count += histogram[i];
+            sum += (long) i * histogram[i];
+        }
+    }
+    
+    void add(Rating rating) {
+        histogram[rating.ordinal()]++;
+        count++;
+        sum += rating.ordinal();
+    }
+    
+    int getCount() {
+        return count;
+    }
+    
+    /**
+     * Calculates the average of all review ratings, rounded to the nearest
+     * {@link Rating}
+     *
+     * @return the average rating, or {@link Rateable#DEFAULT_RATING} when
+     * there are no reviews
+     */
+    Rating getAverageRating() {
+        return (count == 0)
+                ? Rateable.DEFAULT_RATING
+                : Rateable.convert((int) Math.round((double) sum / count));
+    }
+    
+    Map<Rating, Integer> getHistogram() {
+        Map<Rating, Integer> result = new EnumMap<>(Rating.class);
+        
+        for (Rating rating : RATINGS) {
+            result.put(rating, histogram[rating.ordinal()]);
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * {@code SnapshotFile} class writes and reads a snapshot of the whole
+ * catalogue, used by the dump and restore of the {@link ProductManager}.
+ * <br>
+ * A snapshot starts with a magic number and a format version, followed by one
+ * record per product with its reviews, an end marker, the product count and a
+ * CRC32 checksum of everything before it. Snapshots are written and read as a
+ * stream, one product at a time.
+ *
+ * @author apellet
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x504D534E;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final byte END = 0;
+    private static final byte DRINK = 'D';
+    private static final byte FOOD = 'F';
+    
+    private SnapshotFile() {
+    }
+    
+    /**
+     * Writes a snapshot next to {@code file} and moves it into place once it
+     * is complete, so an interrupted dump never leaves a partial snapshot.
+     *
+     * @param file the snapshot file
+     * @param entries the products and their reviews
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(Path file, Collection<CatalogueEntry> entries) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".part");
+        CRC32 checksum = new CRC32();
+        
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE), checksum))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            
+            int count = 0;
+            
+            for (CatalogueEntry entry : entries) {
+                writeProduct(out, entry.getProduct());
+                out.writeInt(entry.getReviews().size());
+                count++;
+                
+                for (Review review : entry.getReviews()) {
+                    out.writeByte(review.getRating().ordinal());
+                    writeBytes(out, review.getComments().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            
+            out.writeByte(END);
+            out.writeInt(count);
+            out.flush();
+            out.writeLong(checksum.getValue());
+        }
+        
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Reads a whole snapshot, checking its format version, product count and
+     * checksum. Every length and count read from the file is checked against
+     * the size of the file before anything is allocated for it, so a
+     * corrupted snapshot fails with an {@code IOException} rather than
+     * exhausting memory.
+     *
+     * @param file the snapshot file
+     * @return the products and their reviews
+     * @throws IOException if the snapshot cannot be read, is not a snapshot
+     * or is corrupted
+     */
+    static Map<Product, List<Review>> read(Path file) throws IOException {
+        CRC32 checksum = new CRC32();
+        long size = Files.size(file);
+        
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE), checksum);
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot file");
+            }
+            
+            int formatVersion = in.readInt();
+            
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + formatVersion);
+            }
+            
+            Map<Product, List<Review>> products = new HashMap<>();
+            
+            try {
+                for (byte type = in.readByte(); type != END; type = in.readByte()) {
+                    Product product = readProduct(in, type, size);
+                    int count = checkLength(in.readInt(), size);
+                    List<Review> reviews = new ReviewList(count + 1);
+                    
+                    for (int i = 0; i < count; i++) {
+                        Rating rating = Rateable.convert(in.readByte());
+                        reviews.add(new Review(rating, new String(readBytes(in, size),
+                                                                  StandardCharsets.UTF_8)));
+                    }
+                    
+                    products.put(product, reviews);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Snapshot " + file + " is corrupted", e);
+            }
+            
+            int count = in.readInt();
+            long expected = checksum.getValue();
+            
+            if (count != products.size() || in.readLong() != expected) {
+                throw new IOException("Snapshot " + file + " is corrupted");
+            }
+            
+            return products;
+        }
+    }
+    
+    private static void writeProduct(DataOutputStream out, Product product) throws IOException {
+        out.writeByte((product instanceof Food) ? FOOD : DRINK);
+        out.writeInt(product.getId());
+        writeBytes(out, product.getName().getBytes(StandardCharsets.UTF_8));
+        out.writeInt(product.getPrice().scale());
+        writeBytes(out, product.getPrice().unscaledValue().toByteArray());
+        out.writeByte(product.getRating().ordinal());
+        
+        if (product instanceof Food) {
+            out.writeLong(product.getBestBefore().toEpochDay());
+        }
+    }
+    
+    private static Product readProduct(DataInputStream in, byte type, long size)
+            throws IOException {
+        if (type != DRINK && type != FOOD) {
+            throw new IOException("Unknown product type " + type);
+        }
+        
+        int id = in.readInt();
+        String name = new String(readBytes(in, size), StandardCharsets.UTF_8);
+        int scale = in.readInt();
+        BigDecimal price = new BigDecimal(new BigInteger(readBytes(in, size)), scale);
+        Rating rating = Rateable.convert(in.readByte());
+        
+        return (type == FOOD)
+                ? new Food(id, name, price, rating, LocalDate.ofEpochDay(in.readLong()))
+                : new Drink(id, name, price, rating);
+    }
+    
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static byte[] readBytes(DataInputStream in, long size) throws IOException {
+        byte[] bytes = new byte[checkLength(in.readInt(), size)];
+        in.readFully(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Checks a length or a count read from a snapshot, which cannot be
+     * negative or exceed the size of the snapshot file
+     */
+    private static int checkLength(int length, long size) throws IOException {
+        if (length < 0 || length > size) {
+            throw new IOException("Invalid length " + length + " in snapshot");
+        }
+        
+        return length;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import labs.pm.metrics.Metrics;
+import labs.pm.metrics.Timer;
+
+/**
+ * {@code StripedLock} class guards the products of the catalogue with a fixed
+ * number of read-write locks, each of them covering the product ids that map
+ * to its stripe.
+ * <br>
+ * Writers of products in different stripes proceed in parallel. Operations
+ * that need a consistent view of the whole catalogue lock every stripe, always
+ * in ascending order, so they cannot deadlock with each other or with single
+ * product operations.
+ * <br>
+ * While metrics are enabled, the time spent waiting for a product lock and
+ * holding it is recorded, as well as the time spent waiting for every
+ * stripe. The timed locks are created once per stripe and keep the
+ * acquisition times of each thread in a thread local array, so timing a lock
+ * allocates nothing.
+ *
+ * @author apellet
+ */
+class StripedLock {
+    private final ReentrantReadWriteLock[] stripes;
+    private final Metrics metrics;
+    private final Timer readWait;
+    private final Timer readHold;
+    private final Timer writeWait;
+    private final Timer writeHold;
+    private final Timer allReadWait;
+    private final Timer allWriteWait;
+    private final TimedLock[] timedReadLocks;
+    private final TimedLock[] timedWriteLocks;
+    private final ThreadLocal<long[]> acquired;
+    
+    StripedLock(int count, Metrics metrics) {
+        stripes = new ReentrantReadWriteLock[count];
+        
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        
+        this.metrics = metrics;
+        readWait = metrics.timer("lock.read.wait");
+        readHold = metrics.timer("lock.read.hold");
+        writeWait = metrics.timer("lock.write.wait");
+        writeHold = metrics.timer("lock.write.hold");
+        allReadWait = metrics.timer("lock.all.read.wait");
+        allWriteWait = metrics.timer("lock.all.write.wait");
+        
+        timedReadLocks = new TimedLock[count];
+        timedWriteLocks = new TimedLock[count];
+        
+        for (int i = 0; i < count; i++) {
+            ReentrantReadWriteLock stripe = stripes[i];
+            
+            timedReadLocks[i] = new TimedLock(stripe.readLock(), stripe::getReadHoldCount,
+                                              2 * i, readWait, readHold);
+            timedWriteLocks[i] = new TimedLock(stripe.writeLock(), stripe::getWriteHoldCount,
+                                               2 * i + 1, writeWait, writeHold);
+        }
+        
+        acquired = ThreadLocal.withInitial(() -> new long[2 * count]);
+    }
+    
+    Lock readLock(int id) {
+        int stripe = stripeOf(id);
+        
+        return metrics.isEnabled() ? timedReadLocks[stripe] : stripes[stripe].readLock();
+    }
+    
+    Lock writeLock(int id) {
+        int stripe = stripeOf(id);
+        
+        return metrics.isEnabled() ? timedWriteLocks[stripe] : stripes[stripe].writeLock();
+    }
+    
+    void lockAllRead() {
+        long start = allReadWait.start();
+        
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.readLock().lock();
+        }
+        
+        allReadWait.stop(start);
+    }
+    
+    void unlockAllRead() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].readLock().unlock();
+        }
+    }
+    
+    void lockAllWrite() {
+        long start = allWriteWait.start();
+        
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+        
+        allWriteWait.stop(start);
+    }
+    
+    void unlockAllWrite() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the stripe of a product id. Products of the same stripe share
+     * their locks, so a batch of them can be written under one acquisition.
+     */
+    int stripeOf(int id) {
+        return Math.floorMod(id, stripes.length);
+    }
+    
+    /**
+     * A lock that times the acquisitions of a stripe by any thread, from the
+     * call to {@code lock} until it returns and from then until the matching
+     * {@code unlock}. Only the outermost hold of a thread is timed, as
+     * reentrant acquisitions are part of it.
+     */
+    private final class TimedLock implements Lock {
+        private final Lock lock;
+        private final IntSupplier holdCount;
+        private final int slot;
+        private final Timer wait;
+        private final Timer hold;
+        
+        private TimedLock(Lock lock, IntSupplier holdCount, int slot, Timer wait, Timer hold) {
+            this.lock = lock;
+            this.holdCount = holdCount;
+            this.slot = slot;
+            this.wait = wait;
+            this.hold = hold;
+        }
+        
+        @Override
+        public void lock() {
+            long start = System.nanoTime();
+            lock.lock();
+            locked(start);
+        }
+        
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            long start = System.nanoTime();
+            lock.lockInterruptibly();
+            locked(start);
+        }
+        
+        @Override
+        public boolean tryLock() {
+            long start = System.nanoTime();
+            boolean locked = lock.tryLock();
+            
+            if (locked) {
+                locked(start);
+            }
+            
+            return locked;
+        }
+        
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long start = System.nanoTime();
+            boolean locked = lock.tryLock(time, unit);
+            
+            if (locked) {
+                locked(start);
+            } else {
+                wait.record(System.nanoTime() - start);
+            }
+            
+            return locked;
+        }
+        
+        @Override
+        public void unlock() {
+            boolean outermost = holdCount.getAsInt() == 1;
+            lock.unlock();
+            
+            if (outermost) {
+                hold.record(System.nanoTime() - acquired.get()[slot]);
+            }
+        }
+        
+        @Override
+        public Condition newCondition() {
+            return lock.newCondition();
+        }
+        
+        private void locked(long start) {
+            long now = System.nanoTime();
+            wait.record(now - start);
+            
+            if (holdCount.getAsInt() == 1) {
+                acquired.get()[slot] = now;
+            }
+        }
+    }
+}
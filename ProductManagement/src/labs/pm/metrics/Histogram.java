@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code Histogram} class records the distribution of non-negative values,
+ * such as latencies in nanoseconds, with a bounded relative error.
+ * <br>
+ * Values are counted in buckets that split every power of two into 16 equal
+ * parts, so a percentile is reported within about 6% of the recorded value
+ * and the histogram always uses the same small amount of memory. Any number
+ * of threads can record values concurrently.
+ *
+ * @author apellet
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Records a value
+     *
+     * @param value the value, negative values being recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        
+        long current = max.get();
+        
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    public double getMean() {
+        long total = count.sum();
+        
+        return (total == 0) ? 0 : (double) sum.sum() / total;
+    }
+    
+    /**
+     * Estimates the value below which a percentage of the values fall
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the estimated value, or 0 if no value was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        
+        if (total == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        
+        return max.get();
+    }
+    
+    /**
+     * Forgets every value recorded so far. Values recorded concurrently may
+     * be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+    
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
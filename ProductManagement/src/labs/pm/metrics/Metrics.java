@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@code Metrics} class holds the named {@link Timer timers} and gauges of a
+ * component, and reads them all at once as a {@link MetricsSnapshot}.
+ * <br>
+ * Metrics can be switched off at run time, in which case timers cost a
+ * single volatile read per call. Gauges are only read when a snapshot is
+ * taken.
+ *
+ * @author apellet
+ */
+public class Metrics implements MetricsMXBean {
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+    
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * Gets the timer of a given name, creating it if needed
+     *
+     * @param name the name of the timer
+     * @return the timer
+     */
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer(this, key));
+    }
+    
+    /**
+     * Adds a gauge, whose value is read each time a snapshot is taken
+     *
+     * @param name the name of the gauge
+     * @param value reads the current value
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+    
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(getTimers(), getGauges());
+    }
+    
+    @Override
+    public Map<String, TimerSnapshot> getTimers() {
+        Map<String, TimerSnapshot> result = new HashMap<>();
+        timers.forEach((name, timer) -> result.put(name, timer.snapshot()));
+        
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> result = new HashMap<>();
+        gauges.forEach((name, gauge) -> result.put(name, gauge.getAsLong()));
+        
+        return result;
+    }
+    
+    @Override
+    public void reset() {
+        timers.values().forEach(Timer::reset);
+    }
+    
+    /**
+     * Registers these metrics with the platform MBean server
+     *
+     * @param name the object name to register them under
+     * @throws JMException if the metrics cannot be registered
+     */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(name);
+        
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        
+        server.registerMBean(this, objectName);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.metrics;
+
+import java.util.Map;
+
+/**
+ * {@code MetricsSnapshot} class represents the state of all the timers and
+ * gauges of a {@link Metrics} at the time it was read.
+ *
+ * @author apellet
+ */
+public final class MetricsSnapshot {
+    private final Map<String, TimerSnapshot> timers;
+    private final Map<String, Long> gauges;
+    
+    MetricsSnapshot(Map<String, TimerSnapshot> timers, Map<String, Long> gauges) {
+        this.timers = Map.copyOf(timers);
+        this.gauges = Map.copyOf(gauges);
+    }
+    
+    public Map<String, TimerSnapshot> getTimers() {
+        return timers;
+    }
+    
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        
+        timers.values().stream()
+              .sorted((t1, t2) -> t1.getName().compareTo(t2.getName()))
+              .forEach(timer -> text.append(timer).append('\n'));
+        gauges.entrySet().stream()
+              .sorted(Map.Entry.comparingByKey())
+              .forEach(gauge -> text.append(gauge.getKey()).append(": ")
+                                    .append(gauge.getValue()).append('\n'));
+        
+        return text.toString();
+    }
+}
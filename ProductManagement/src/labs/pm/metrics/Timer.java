@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code Timer} class counts the calls of an operation, its failures and the
+ * distribution of its durations.
+ * <br>
+ * A call is timed with {@link #start()} and {@link #stop(long)}. While the
+ * {@link Metrics} the timer belongs to are disabled, {@code start} does not
+ * read the clock and {@code stop} records nothing.
+ *
+ * @author apellet
+ */
+public final class Timer {
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+    
+    private final Metrics metrics;
+    private final String name;
+    private final Histogram durations = new Histogram();
+    private final LongAdder failures = new LongAdder();
+    
+    Timer(Metrics metrics, String name) {
+        this.metrics = metrics;
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Starts timing a call
+     *
+     * @return the value to pass to {@link #stop(long)} or
+     * {@link #fail(long)} when the call ends
+     */
+    public long start() {
+        return metrics.isEnabled() ? System.nanoTime() : NOT_TIMED;
+    }
+    
+    /**
+     * Records a call that succeeded
+     *
+     * @param start the value returned by {@link #start()}
+     */
+    public void stop(long start) {
+        if (start != NOT_TIMED) {
+            durations.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Records a call that failed
+     *
+     * @param start the value returned by {@link #start()}
+     */
+    public void fail(long start) {
+        if (start != NOT_TIMED) {
+            durations.record(System.nanoTime() - start);
+            failures.increment();
+        }
+    }
+    
+    /**
+     * Records a duration measured by the caller
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (metrics.isEnabled()) {
+            durations.record(nanos);
+        }
+    }
+    
+    public TimerSnapshot snapshot() {
+        return new TimerSnapshot(name, durations.getCount(), failures.sum(),
+                                 durations.getMean(), durations.getPercentile(50),
+                                 durations.getPercentile(90), durations.getPercentile(99),
+                                 durations.getPercentile(99.9), durations.getMax());
+    }
+    
+    void reset() {
+        durations.reset();
+        failures.reset();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 apellet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.metrics;
+
+/**
+ * {@code TimerSnapshot} class represents the state of a {@link Timer} at the
+ * time it was read. Durations are in nanoseconds.
+ *
+ * @author apellet
+ */
+public final class TimerSnapshot {
+    private final String name;
+    private final long count;
+    private final long failures;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+    
+    TimerSnapshot(String name, long count, long failures, double mean,
+                  long p50, long p90, long p99, long p999, long max) {
+        this.name = name;
+        this.count = count;
+        this.failures = failures;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public long getFailures() {
+        return failures;
+    }
+    
+    public double getMean() {
+        return mean;
+    }
+    
+    public long getP50() {
+        return p50;
+    }
+    
+    public long getP90() {
+        return p90;
+    }
+    
+    public long getP99() {
+        return p99;
+    }
+    
+    public long getP999() {
+        return p999;
+    }
+    
+    public long getMax() {
+        return max;
+    }
+    
+    @Override
+    public String toString() {
+        return name + ": count=" + count + ", failures=" + failures
+                + ", mean=" + Math.round(mean) + "ns, p50=" + p50 + "ns, p90=" + p90
+                + "ns, p99=" + p99 + "ns, p99.9=" + p999 + "ns, max=" + max + "ns";
+    }
+}